@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Properties;
+
+/**
+ * A minimal throughput harness.
+ * Each benchmark is warmed up, then run repeatedly for a fixed period,
+ * and the number of operations per second is reported,
+ * along with the bytes allocated per operation where the JVM can measure them.
+ * <p>
+ * If the system property {@code benchmark.results} names a file, each result is recorded in it;
+ * if {@code benchmark.baseline} names a file of earlier results, the change from the baseline is reported,
+ * and flagged as a regression if throughput falls by more than {@code benchmark.tolerance} percent
+ *
+ * @author gilesjb
+ */
+public abstract class Benchmark {
+
+	private static final long WARMUP_MILLIS = Long.getLong("benchmark.warmup", 2000);
+	private static final long MEASURE_MILLIS = Long.getLong("benchmark.measure", 5000);
+	private static final double TOLERANCE = Double.parseDouble(System.getProperty("benchmark.tolerance", "10"));
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final Method ALLOCATED_BYTES = allocatedBytesMethod();
+
+	private final String name;
+
+	protected Benchmark(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Performs one operation
+	 * @throws Exception
+	 */
+	protected abstract void operation() throws Exception;
+
+	/**
+	 * Warms up and measures this benchmark, and prints the result
+	 *
+	 * @return the measured operations per second
+	 * @throws Exception
+	 */
+	public double run() throws Exception {
+		iterate(WARMUP_MILLIS);
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		long ops = iterate(MEASURE_MILLIS);
+		double perSecond = ops * 1e9 / (System.nanoTime() - start);
+		double perOp = allocated < 0? Double.NaN : (double) (allocatedBytes() - allocated) / ops;
+		System.out.format("%-40s %,14.0f ops/s %10s B/op%s%n", name, perSecond,
+				Double.isNaN(perOp)? "n/a" : String.format("%,.0f", perOp), compare(perSecond));
+		record(perSecond, perOp);
+		return perSecond;
+	}
+
+	private long iterate(long millis) throws Exception {
+		long ops = 0;
+		long end = System.nanoTime() + millis * 1000000L;
+		do {
+			for (int i = 0; i < 100; i++) {
+				operation();
+			}
+			ops += 100;
+		} while (System.nanoTime() < end);
+		return ops;
+	}
+
+	/**
+	 * @return the bytes allocated by the current thread, or -1 if the JVM cannot measure them
+	 */
+	private static long allocatedBytes() {
+		if (ALLOCATED_BYTES == null) return -1;
+		try {
+			return (Long) ALLOCATED_BYTES.invoke(THREADS, Thread.currentThread().getId());
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Looks up the vendor-specific {@code getThreadAllocatedBytes(long)} method,
+	 * which is not part of the standard {@link ThreadMXBean}
+	 * @return the method, or null if the JVM does not support it
+	 */
+	private static Method allocatedBytesMethod() {
+		try {
+			Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+			if (!type.isInstance(THREADS)) return null;
+			Boolean supported = (Boolean) type.getMethod("isThreadAllocatedMemorySupported").invoke(THREADS);
+			Boolean enabled = (Boolean) type.getMethod("isThreadAllocatedMemoryEnabled").invoke(THREADS);
+			return supported && enabled? type.getMethod("getThreadAllocatedBytes", long.class) : null;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private String compare(double perSecond) throws IOException {
+		String baseline = load("benchmark.baseline").getProperty(name + ".ops");
+		if (baseline == null) return "";
+		double change = (perSecond / Double.parseDouble(baseline) - 1) * 100;
+		return String.format(" %+6.1f%%%s", change, change < -TOLERANCE? " REGRESSION" : "");
+	}
+
+	private void record(double perSecond, double perOp) throws IOException {
+		String file = System.getProperty("benchmark.results");
+		if (file == null) return;
+		Properties results = load("benchmark.results");
+		results.setProperty(name + ".ops", String.valueOf(perSecond));
+		if (!Double.isNaN(perOp)) results.setProperty(name + ".bytes", String.valueOf(perOp));
+		OutputStream out = new FileOutputStream(file);
+		try {
+			results.store(out, "Benchmark results");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static Properties load(String property) throws IOException {
+		Properties properties = new Properties();
+		String file = System.getProperty(property);
+		if (file != null && new File(file).isFile()) {
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		return properties;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.copalis.sql.Connecting;
+import org.copalis.sql.Session;
+import org.copalis.sql.common.Generated;
+import org.copalis.sql.samples.CoffeeSession;
+import org.copalis.sql.session.GeneratedSession;
+import org.copalis.sql.session.SessionMethodHandler;
+import org.copalis.sql.session.SessionMethods;
+import org.copalis.sql.session.SessionProxy;
+
+/**
+ * Measures the cost of dispatching {@link CoffeeSession} method calls through {@link SessionProxy}
+ * and through the generated session class, with handlers that do no work, and with the real query handlers
+ *
+ * @author gilesjb
+ */
+public class DispatchBenchmark {
+
+	private static final SessionMethodHandler.Binder NO_OP = new SessionMethodHandler.Binder() {
+		public SessionMethodHandler bind(Connection connection) {
+			return new SessionMethodHandler() {
+				public Object execute(Object[] args) {
+					return null;
+				}
+			};
+		}
+	};
+
+	public static void main(String... args) throws Exception {
+		final CoffeeSession session = setUp(Connecting.to("jdbc:hsqldb:mem:dispatch-benchmark", "sa", ""));
+
+		final Map<Method, SessionMethodHandler.Binder> binders = new HashMap<Method, SessionMethodHandler.Binder>();
+		for (Method method : CoffeeSession.class.getMethods()) {
+			if (method.getDeclaringClass() != Session.class) binders.put(method, NO_OP);
+		}
+
+		final CoffeeSession mapped = mapDispatch(binders, session.connection());
+		new Benchmark("dispatch, Method map") {
+			protected void operation() {
+				mapped.coffeeSales("Espresso");
+			}
+		}.run();
+
+		final CoffeeSession slotted = SessionProxy.proxy(
+				CoffeeSession.class, new SessionMethods(binders), session.connection());
+		new Benchmark("dispatch, SessionMethods slots") {
+			protected void operation() {
+				slotted.coffeeSales("Espresso");
+			}
+		}.run();
+
+		GeneratedSession prototype = Generated.prototype(CoffeeSession.class, GeneratedSession.class);
+		if (prototype != null) {
+			final CoffeeSession generated = (CoffeeSession) prototype.create(
+					session.connection(), SessionMethods.ordered(binders, prototype.signatures()));
+			new Benchmark("dispatch, generated session") {
+				protected void operation() {
+					generated.coffeeSales("Espresso");
+				}
+			}.run();
+		}
+
+		new Benchmark("coffeeSales query") {
+			protected void operation() {
+				session.coffeeSales("Espresso");
+			}
+		}.run();
+
+		session.close();
+	}
+
+	static CoffeeSession setUp(Connecting<Session> connecting) throws SQLException {
+		Session setup = connecting.open();
+		for (String table : CoffeeSession.TABLES) {
+			setup.connection().createStatement().executeUpdate(table);
+		}
+		setup.close();
+
+		CoffeeSession session = connecting.open(CoffeeSession.class);
+		int supplier = session.addSupplier("Acme, Inc", "99 Market Street", "Groundsville", "CA", "95199");
+		session.addCoffee(supplier, "Columbian", BigDecimal.valueOf(799, 2));
+		session.addCoffee(supplier, "Espresso", BigDecimal.valueOf(999, 2));
+		return session;
+	}
+
+	/**
+	 * Dispatches in the manner of the original {@link SessionProxy}:
+	 * a declaring class check and a lookup by {@link Method} equality on every call
+	 */
+	private static CoffeeSession mapDispatch(
+			final Map<Method, SessionMethodHandler.Binder> binders, final Connection connection) {
+		return (CoffeeSession) Proxy.newProxyInstance(CoffeeSession.class.getClassLoader(),
+				new Class<?>[] {CoffeeSession.class}, new InvocationHandler() {
+					private final Map<Method, SessionMethodHandler> handlers =
+							new HashMap<Method, SessionMethodHandler>();
+
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getDeclaringClass().isAssignableFrom(Session.class)) {
+							return method.invoke(this, args);
+						}
+						SessionMethodHandler handler = handlers.get(method);
+						if (handler == null) {
+							handler = binders.get(method).bind(connection);
+							handlers.put(method, handler);
+						}
+						return handler.execute(args);
+					}
+				});
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.benchmarks;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.copalis.sql.Connecting;
+import org.copalis.sql.Results;
+import org.copalis.sql.Session;
+import org.copalis.sql.session.Connector;
+
+/**
+ * Measures {@link Connecting#open(Class)} throughput
+ * when the session interface must be validated for every open,
+ * compared with reusing the registered validation,
+ * and the cost of {@link Connecting#as(Class)}
+ *
+ * @author gilesjb
+ */
+public class OpenBenchmark {
+
+	public interface Inventory extends Session {
+		@Update("insert into ITEMS (NAME, QTY) values ($1, $2)")
+		void add(String name, int qty);
+
+		@Query("select QTY from ITEMS where NAME = $1")
+		Integer quantity(String name);
+
+		@Query("ITEMS where NAME like $1")
+		Items named(String pattern);
+	}
+
+	public interface Items extends Results {
+		String name();
+		int qty();
+	}
+
+	private static final Connector DATABASE = new Connector() {
+		public Connection connect() throws SQLException {
+			return Connecting.to("jdbc:hsqldb:mem:open-benchmark", "sa", "").connect();
+		}
+	};
+
+	public static void main(String... args) throws Exception {
+		Class.forName("org.hsqldb.jdbc.JDBCDriver");
+		Connection connection = DATABASE.connect();
+		connection.createStatement().executeUpdate("create table ITEMS (NAME varchar(32), QTY int)");
+		connection.close();
+
+		double validating = new Benchmark("open, validating every time") {
+			protected void operation() {
+				// A new connector every time has no registered validation
+				Connecting.with(new Connector() {
+					public Connection connect() throws SQLException {
+						return DATABASE.connect();
+					}
+				}).open(Inventory.class).close();
+			}
+		}.run();
+
+		final Connecting<Session> shared = Connecting.with(DATABASE);
+		double registered = new Benchmark("open, registered validation") {
+			protected void operation() {
+				shared.open(Inventory.class).close();
+			}
+		}.run();
+
+		System.out.format("Speedup: %.1fx%n", registered / validating);
+
+		new Benchmark("Connecting.as, registered validation") {
+			protected void operation() {
+				shared.as(Inventory.class);
+			}
+		}.run();
+	}
+}
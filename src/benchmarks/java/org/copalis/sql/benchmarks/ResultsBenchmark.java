@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.copalis.sql.Connecting;
+import org.copalis.sql.Results;
+import org.copalis.sql.results.ColumnBuffer;
+import org.copalis.sql.results.OffHeapBuffer;
+import org.copalis.sql.results.ResultsProxy;
+import org.copalis.sql.results.SelectResultSetWrapper;
+
+/**
+ * Measures the throughput of {@link ResultsProxy} getters reading a row,
+ * compared with reading the same columns from the {@link ResultSet} directly,
+ * and with reading rows detached into a {@link ColumnBuffer} or {@link OffHeapBuffer}
+ *
+ * @author gilesjb
+ */
+public class ResultsBenchmark {
+
+	public interface Items extends Results {
+		String name();
+		int qty();
+	}
+
+	private static final String SELECT = "select NAME, QTY from ITEMS";
+
+	/**
+	 * Reads one row per operation, returning to the first row after the last
+	 */
+	private static abstract class RowBenchmark extends Benchmark {
+		private final ResultSet results;
+
+		RowBenchmark(String name, ResultSet results) {
+			super(name);
+			this.results = results;
+		}
+
+		protected void operation() throws Exception {
+			if (!results.next()) {
+				results.beforeFirst();
+				results.next();
+			}
+			read();
+		}
+
+		protected abstract void read() throws Exception;
+	}
+
+	public static void main(String... args) throws Exception {
+		Connection connection = Connecting.to("jdbc:hsqldb:mem:results-benchmark", "sa", "").connect();
+		connection.createStatement().executeUpdate("create table ITEMS (NAME varchar(32), QTY int)");
+		PreparedStatement insert = connection.prepareStatement("insert into ITEMS (NAME, QTY) values (?, ?)");
+		for (int i = 0; i < 1000; i++) {
+			insert.setString(1, "item " + i % 50);
+			insert.setInt(2, i);
+			insert.executeUpdate();
+		}
+
+		final ResultSet direct = scrollable(connection);
+		new RowBenchmark("ResultSet getters", direct) {
+			protected void read() throws Exception {
+				direct.getString(1);
+				direct.getInt(2);
+			}
+		}.run();
+
+		ResultSet proxied = scrollable(connection);
+		final Items items = new SelectResultSetWrapper<Items>(Items.class, proxied.getMetaData()).wrap(proxied);
+		new RowBenchmark("ResultsProxy getters", proxied) {
+			protected void read() {
+				items.name();
+				items.qty();
+			}
+		}.run();
+
+		final Items columns = ColumnBuffer.detach(
+				new SelectResultSetWrapper<Items>(Items.class, proxied.getMetaData()).wrap(scrollable(connection)));
+		new RowBenchmark("ResultsProxy getters, ColumnBuffer", columns.results()) {
+			protected void read() {
+				columns.name();
+				columns.qty();
+			}
+		}.run();
+
+		final Items offHeap = OffHeapBuffer.detach(
+				new SelectResultSetWrapper<Items>(Items.class, proxied.getMetaData()).wrap(scrollable(connection)),
+				Long.MAX_VALUE);
+		new RowBenchmark("ResultsProxy getters, OffHeapBuffer", offHeap.results()) {
+			protected void read() {
+				offHeap.name();
+				offHeap.qty();
+			}
+		}.run();
+
+		offHeap.close();
+		connection.close();
+	}
+
+	private static ResultSet scrollable(Connection connection) throws Exception {
+		return connection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY)
+				.executeQuery(SELECT);
+	}
+}
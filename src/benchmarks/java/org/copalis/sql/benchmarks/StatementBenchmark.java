@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.benchmarks;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import org.copalis.sql.Connecting;
+import org.copalis.sql.common.ParameterizedStatement;
+
+/**
+ * Measures {@link ParameterizedStatement} parsing, table inference and
+ * {@link ParameterizedStatement#setParameters(PreparedStatement, Object[]) setParameters}
+ *
+ * @author gilesjb
+ */
+public class StatementBenchmark {
+
+	private static final String SQL = "update ITEMS set QTY = $2, PRICE = $3 where NAME = $1 and QTY <> $2";
+
+	public static void main(String... args) throws Exception {
+		new Benchmark("ParameterizedStatement parse") {
+			protected void operation() {
+				new ParameterizedStatement(SQL);
+			}
+		}.run();
+
+		final ParameterizedStatement statement = new ParameterizedStatement(SQL);
+		new Benchmark("ParameterizedStatement tables") {
+			protected void operation() {
+				statement.tables();
+			}
+		}.run();
+
+		Connection connection = Connecting.to("jdbc:hsqldb:mem:statement-benchmark", "sa", "").connect();
+		connection.createStatement().executeUpdate("create table ITEMS (NAME varchar(32), QTY int, PRICE decimal)");
+		final PreparedStatement prepared = statement.prepare(connection, String.class, int.class, BigDecimal.class);
+		final Object[] values = {"item", 5, BigDecimal.valueOf(199, 2)};
+		new Benchmark("ParameterizedStatement setParameters") {
+			protected void operation() throws Exception {
+				statement.setParameters(prepared, values);
+			}
+		}.run();
+
+		prepared.close();
+		connection.close();
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.copalis.sql.Connecting;
+import org.copalis.sql.Session;
+
+/**
+ * Measures {@link Session.Update} throughput for commands executed one at a time,
+ * queued in JDBC batches, and executed in bulk for a collection argument.
+ * Each operation updates one row, so that the table does not grow
+ *
+ * @author gilesjb
+ */
+public class UpdateBenchmark {
+
+	private static final int ROWS = 100;
+
+	public interface Stock extends Session {
+		@Update("update ITEMS set QTY = $2 where ID = $1")
+		void set(int id, int qty);
+
+		@Update("update ITEMS set QTY = $2 where ID = $1")
+		@Batch(size = ROWS)
+		void queue(int id, int qty);
+
+		@Update(value = "update ITEMS set QTY = $2 where ID = $1", bulk = true, batchSize = ROWS)
+		int setAll(List<Object[]> rows);
+	}
+
+	public static void main(String... args) throws Exception {
+		Connecting<Session> connecting = Connecting.to("jdbc:hsqldb:mem:update-benchmark", "sa", "");
+		Session setup = connecting.open();
+		setup.connection().createStatement().executeUpdate("create table ITEMS (ID int primary key, QTY int)");
+		for (int i = 0; i < ROWS; i++) {
+			setup.connection().createStatement().executeUpdate("insert into ITEMS values (" + i + ", 0)");
+		}
+		setup.close();
+
+		final Stock stock = connecting.open(Stock.class);
+		new Benchmark("@Update, one command") {
+			int i = 0;
+			protected void operation() {
+				stock.set(i++ % ROWS, i);
+			}
+		}.run();
+
+		new Benchmark("@Update, @Batch of " + ROWS) {
+			int i = 0;
+			protected void operation() {
+				stock.queue(i++ % ROWS, i);
+			}
+		}.run();
+		stock.flush();
+
+		final List<Object[]> rows = new ArrayList<Object[]>();
+		for (int i = 0; i < ROWS; i++) {
+			rows.add(new Object[] {i, i});
+		}
+		double bulk = new Benchmark("@Update, collection of " + ROWS) {
+			protected void operation() {
+				stock.setAll(rows);
+			}
+		}.run();
+		System.out.format("Per command: %,.0f ops/s%n", bulk * ROWS);
+
+		stock.close();
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The update counts and generated keys of batched commands
+ * 
+ * @author gilesjb
+ * @see Session.Batch
+ */
+public final class BatchResults {
+	private final int[] counts;
+	private final List<Object> keys;
+	
+	public BatchResults(int[] counts, List<Object> keys) {
+		this.counts = counts;
+		this.keys = Collections.unmodifiableList(keys);
+	}
+	
+	/**
+	 * Gets the update count of each command, in the order the commands were queued.
+	 * A count may be {@link java.sql.Statement#SUCCESS_NO_INFO} if the driver does not report it
+	 * 
+	 * @return an array of update counts
+	 */
+	public int[] counts() {
+		return counts.clone();
+	}
+	
+	/**
+	 * Gets the total number of updated rows
+	 * 
+	 * @return the sum of the non-negative update counts
+	 */
+	public int total() {
+		int total = 0;
+		for (int count : counts) {
+			if (count > 0) total += count;
+		}
+		return total;
+	}
+	
+	/**
+	 * Gets the keys generated by commands of methods that specify
+	 * {@link Session.Update#returnGeneratedKey()}
+	 * 
+	 * @return a list of generated keys, in the order the commands were queued
+	 */
+	public List<Object> keys() {
+		return keys;
+	}
+	
+	@Override public String toString() {
+		return "counts: " + Arrays.toString(counts) + ", keys: " + keys;
+	}
+}
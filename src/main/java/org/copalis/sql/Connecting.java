@@ -18,13 +18,24 @@ package org.copalis.sql;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.sql.DataSource;
 
 import org.copalis.sql.Session.Command;
 import org.copalis.sql.common.Finalizer;
+import org.copalis.sql.session.ConnectionPool;
 import org.copalis.sql.session.ConnectionWrapper;
 import org.copalis.sql.session.Connector;
+import org.copalis.sql.session.MetadataSnapshot;
+import org.copalis.sql.session.MethodListener;
+import org.copalis.sql.session.SessionBinding;
+import org.copalis.sql.session.SessionRegistry;
+import org.copalis.sql.session.Validation;
 
 /**
  * A factory that instantiates {@link Session} interfaces.
@@ -40,15 +51,27 @@ public class Connecting<T extends Session> implements Connector {
 	
 	private final Connector delegate;
 	private final ConnectionWrapper<T> wrapper;
+	private final Executor executor;
+	private final List<MethodListener> listeners;
 	
 	private Connecting(Connector delegate, ConnectionWrapper<T> wrapped) {
+		this(delegate, wrapped, null, Collections.<MethodListener>emptyList());
+	}
+	
+	private Connecting(Connector delegate, ConnectionWrapper<T> wrapped,
+			Executor executor, List<MethodListener> listeners) {
 		this.delegate = delegate;
 		this.wrapper = wrapped;
+		this.executor = executor;
+		this.listeners = listeners;
 	}
 
 	/**
 	 * Creates a {@link Connecting} to the data source,
-	 * that creates instances of the desired session interface
+	 * that creates instances of the desired session interface.
+	 * <p>
+	 * The interface is validated against the database the first time it is used
+	 * with this data source; subsequent calls reuse the validated interface
 	 * 
 	 * @param iface a {@link Class} object for an interface derived from {@link Session}
 	 * @return a {@link Connecting} that creates instances of iface
@@ -56,15 +79,91 @@ public class Connecting<T extends Session> implements Connector {
 	public <C extends Session> Connecting<C> as(final Class<C> iface) throws DataException {
 		if (!iface.isInterface()) throw new IllegalArgumentException(iface.toString() + " is not an interface");
 
-		Connection connection = connect();
-		Finalizer handler = new Finalizer();
-		try {
-			return new Connecting<C>(delegate, new ConnectionWrapper.Generic<C>(iface, connection));
-		} catch (Exception e) {
-			throw handler.wrap(e);
-		} finally {
-			handler.close(connection);
+		return configured(SessionRegistry.wrapper(iface, delegate));
+	}
+	
+	/**
+	 * Creates a {@link Connecting} to the data source,
+	 * that creates instances of the desired session interface,
+	 * with a policy for when the interface is validated against the database.
+	 * <p>
+	 * {@link Validation#LAZY} avoids connecting to the database until a method is called,
+	 * and {@link Validation#PARALLEL} validates a large interface with several connections at once.
+	 * If the interface has already been validated with this data source, it is reused
+	 * 
+	 * @param iface a {@link Class} object for an interface derived from {@link Session}
+	 * @param validation when the interface's statements are validated
+	 * @return a {@link Connecting} that creates instances of iface
+	 */
+	public <C extends Session> Connecting<C> as(Class<C> iface, Validation validation) throws DataException {
+		if (!iface.isInterface()) throw new IllegalArgumentException(iface.toString() + " is not an interface");
+
+		return configured(SessionRegistry.wrapper(iface, delegate, validation));
+	}
+	
+	/**
+	 * Creates a {@link Connecting} to the data source,
+	 * that creates instances of the desired session interface,
+	 * validating the interface with the metadata recorded in a snapshot file.
+	 * If the snapshot does not contain the interface's metadata, or the interface or schema version
+	 * has changed, the interface is validated against the database and its metadata is recorded
+	 * 
+	 * @param iface a {@link Class} object for an interface derived from {@link Session}
+	 * @param snapshot a {@link MetadataSnapshot}
+	 * @return a {@link Connecting} that creates instances of iface
+	 */
+	public <C extends Session> Connecting<C> as(Class<C> iface, MetadataSnapshot snapshot) throws DataException {
+		if (!iface.isInterface()) throw new IllegalArgumentException(iface.toString() + " is not an interface");
+
+		return configured(SessionRegistry.wrapper(iface, delegate, snapshot));
+	}
+	
+	/**
+	 * Creates a {@link Connecting} whose sessions run methods that return a
+	 * {@link java.util.concurrent.Future} on an executor.
+	 * Each session runs its asynchronous methods one at a time, in the order they were invoked.
+	 * <p>
+	 * By default, asynchronous methods run on a shared pool of daemon threads.
+	 * The executor is also used by the sessions of any interface
+	 * that this {@link Connecting} is {@link #as(Class) converted to}
+	 * 
+	 * @param executor an {@link Executor}
+	 * @return a {@link Connecting} that creates the same session type
+	 */
+	public Connecting<T> using(Executor executor) {
+		ConnectionWrapper<T> wrapped = wrapper instanceof ConnectionWrapper.Generic?
+				((ConnectionWrapper.Generic<T>) wrapper).using(executor) : wrapper;
+		return new Connecting<T>(delegate, wrapped, executor, listeners);
+	}
+	
+	/**
+	 * Creates a {@link Connecting} whose sessions report the executions of their methods
+	 * and the rows read from their results to a listener.
+	 * Sessions that have no listener do no timing or counting.
+	 * The listener also receives the events of the sessions of any interface
+	 * that this {@link Connecting} is {@link #as(Class) converted to}
+	 * 
+	 * @param listener a {@link MethodListener}, such as {@link org.copalis.sql.session.MethodMetrics}
+	 * or {@link org.copalis.sql.session.SlowQueryLog}
+	 * @return a {@link Connecting} that creates the same session type
+	 */
+	public Connecting<T> listening(MethodListener listener) {
+		ConnectionWrapper<T> wrapped = wrapper instanceof ConnectionWrapper.Generic?
+				((ConnectionWrapper.Generic<T>) wrapper).listening(listener) : wrapper;
+		List<MethodListener> added = new ArrayList<MethodListener>(listeners);
+		added.add(listener);
+		return new Connecting<T>(delegate, wrapped, executor, Collections.unmodifiableList(added));
+	}
+	
+	/**
+	 * Applies the executor and listeners configured on this {@link Connecting} to a validated wrapper
+	 */
+	private <C extends Session> Connecting<C> configured(ConnectionWrapper.Generic<C> generic) {
+		if (executor != null) generic = generic.using(executor);
+		for (MethodListener listener : listeners) {
+			generic = generic.listening(listener);
 		}
+		return new Connecting<C>(delegate, generic, executor, listeners);
 	}
 	
 	public final Connection connect() throws DataException {
@@ -105,27 +204,38 @@ public class Connecting<T extends Session> implements Connector {
 	 * wraps it with an instance of the data connection interface,
 	 * invokes the {@link Command#execute(Session) execute} method
 	 * of the supplied {@link Session.Command},
-	 * and finally closes the connection
+	 * and finally closes the session, after waiting for the methods it has submitted
+	 * and executing any commands it has queued
 	 * 
 	 * @param command a {@link Session.Command} object that accepts {@link Session}s
 	 * created by this {@link Connecting}
 	 * @throws DataException wraps any {@link SQLException} that is thrown during execution
 	 */
 	public final void execute(Session.Command<T> command) throws DataException {
-		Connection connection = connect();
+		T session = open();
+		SessionBinding binding = SessionBinding.of(session);
 		Finalizer handler = new Finalizer();
 		try {
-			command.execute(open());
+			command.execute(session);
 		} catch (Exception e) {
-			throw handler.wrap(e);
-		} finally {
-			handler.close(connection);
+			try {
+				throw handler.wrap(e);
+			} finally {
+				if (binding != null) binding.awaitSubmitted();
+				handler.close(session);
+			}
 		}
+		if (binding != null) binding.awaitSubmitted();
+		session.close();
 	}
 
 	/**
 	 * Executes a {@link Session.Command} within a transaction.
 	 * 
+	 * Methods that return a {@link java.util.concurrent.Future} complete,
+	 * and any batched commands are executed, before the transaction is committed,
+	 * and cached results that read from tables written by the transaction
+	 * are evicted only once it commits.
 	 * The transaction is rolled back if an exception is thrown during
 	 * {@link Command#execute(Session) execute}
 	 * 
@@ -137,17 +247,27 @@ public class Connecting<T extends Session> implements Connector {
 		execute(new Session.Command<T>() {
 			public void execute(T session) throws SQLException {
 				Finalizer handler = new Finalizer();
+				SessionBinding binding = SessionBinding.of(session);
+				boolean committed = false;
 				session.connection().setAutoCommit(false);
+				if (binding != null) binding.begin();
 				try {
 					command.execute(session);
+					if (binding != null) binding.awaitSubmitted();
+					session.flush();
+					committed = true;
 				} catch (Exception e) {
 					try {
 						throw handler.wrap(e);
 					} finally {
+						if (binding != null) binding.awaitSubmitted();
 						handler.rollback(session.connection());
 					}
 				} finally {
 					handler.setAutoCommit(session.connection(), true);
+					if (binding != null) {
+						if (committed) binding.commit(); else binding.rollback();
+					}
 				}
 			}
 		});
@@ -163,7 +283,7 @@ public class Connecting<T extends Session> implements Connector {
 	 * @see DriverManager#getConnection(String, String, String)
 	 */
 	public static Connecting<Session> to(final String url, final String user, final String password) {
-		return with(new Connector() {
+		return with(new KeyedConnector(url, user, password) {
 			public Connection connect() throws SQLException {
 				return DriverManager.getConnection(url, user, password);
 			}
@@ -178,7 +298,7 @@ public class Connecting<T extends Session> implements Connector {
 	 * @see DriverManager#getConnection(String)
 	 */
 	public static Connecting<Session> to(final String url) {
-		return with(new Connector() {
+		return with(new KeyedConnector(url) {
 			public Connection connect() throws SQLException {
 				return DriverManager.getConnection(url);
 			}
@@ -195,7 +315,7 @@ public class Connecting<T extends Session> implements Connector {
 	 * @see DataSource#getConnection(String, String)
 	 */
 	public static Connecting<Session> to(final DataSource datasource, final String user, final String password) {
-		return with(new Connector() {
+		return with(new KeyedConnector(datasource, user, password) {
 			public Connection connect() throws SQLException {
 				return datasource.getConnection(user, password);
 			}
@@ -210,7 +330,7 @@ public class Connecting<T extends Session> implements Connector {
 	 * @see DataSource#getConnection()
 	 */
 	public static Connecting<Session> to(final DataSource datasource) {
-		return with(new Connector() {
+		return with(new KeyedConnector(datasource) {
 			public Connection connect() throws SQLException {
 				return datasource.getConnection();
 			}
@@ -219,6 +339,10 @@ public class Connecting<T extends Session> implements Connector {
 
 	/**
 	 * Creates a {@link Connecting} that delegates to a {@link Connector}.
+	 * <p>
+	 * The connector may be a {@link ConnectionPool}, in which case closing a {@link Session}
+	 * returns its connection to the pool. The pool is not closed by this {@link Connecting},
+	 * and must be {@link ConnectionPool#close() closed} when it is no longer needed
 	 * 
 	 * @param connector the delegate {@link Connector}
 	 * @return a new {@link Connecting}
@@ -226,4 +350,47 @@ public class Connecting<T extends Session> implements Connector {
 	public static Connecting<Session> with(Connector connector) {
 		return new Connecting<Session>(connector, new ConnectionWrapper.BasicSession());
 	}
+
+	/**
+	 * Creates a {@link ShardedConnecting} whose sessions route each method call
+	 * to one of several databases, or execute {@link Session.Scatter} methods on all of them.
+	 * Each shard validates the interface as {@link #as(Class)} does
+	 * 
+	 * @param iface a {@link Class} object for an interface derived from {@link Session}
+	 * @param router chooses the shard for each method call from its arguments,
+	 * such as {@link ShardedConnecting#byParameter(int)}
+	 * @param shards a {@link Connecting} for each shard, in shard index order
+	 * @return a new {@link ShardedConnecting}
+	 */
+	public static <C extends Session> ShardedConnecting<C> sharded(Class<C> iface,
+			ShardedConnecting.Router router, List<? extends Connecting<?>> shards) throws DataException {
+		if (shards.isEmpty()) throw new IllegalArgumentException("No shards for " + iface.getName());
+		
+		List<Connecting<C>> connecting = new ArrayList<Connecting<C>>(shards.size());
+		for (Connecting<?> shard : shards) {
+			connecting.add(shard.as(iface));
+		}
+		return new ShardedConnecting<C>(iface, router, connecting, ShardedConnecting.shared());
+	}
+
+	/**
+	 * A {@link Connector} that is equal to others created at the same place
+	 * with the same connection parameters,
+	 * so that they share validated {@link Session} interfaces
+	 */
+	private static abstract class KeyedConnector implements Connector {
+		private final List<Object> key;
+
+		KeyedConnector(Object... key) {
+			this.key = Arrays.asList(key);
+		}
+
+		@Override public boolean equals(Object obj) {
+			return obj != null && obj.getClass() == getClass() && key.equals(((KeyedConnector) obj).key);
+		}
+
+		@Override public int hashCode() {
+			return getClass().hashCode() ^ key.hashCode();
+		}
+	}
 }
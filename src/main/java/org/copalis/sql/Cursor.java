@@ -0,0 +1,42 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * An iterator over the rows of a query, which reads each row from the result set as it is needed.
+ * <p>
+ * A {@link Session.Query} method may return {@link Cursor}, {@link Iterator} or {@link Iterable}
+ * of either a single-field value type or a {@link Results} interface.
+ * When the element type is a {@link Results} interface, {@link #next()} returns the same
+ * {@link Results} object positioned at each row in turn.
+ * <p>
+ * The result set is closed when the last row has been read, or when the cursor is closed.
+ * A cursor can only be iterated once, so {@link #iterator()} returns the cursor itself
+ * 
+ * @param <R> the row type
+ * @author gilesjb
+ */
+public interface Cursor<R> extends Iterator<R>, Iterable<R>, Closeable {
+	
+	/**
+	 * Closes the underlying result set
+	 * @throws DataException
+	 */
+	void close() throws DataException;
+}
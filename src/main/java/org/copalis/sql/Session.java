@@ -73,6 +73,12 @@ public interface Session {
 	 * with field-names inferred from the property names declared in
 	 * the {@link Results} return type.
 	 * </li>
+	 * <li>
+	 * <h3>Return a Cursor</h3>
+	 * The method may return a {@link Cursor}, {@link java.util.Iterator} or {@link Iterable}
+	 * whose element type is either a single selected value or a {@link Results} interface.
+	 * Rows are read from the result set as the cursor is iterated, using {@link #fetchSize()}
+	 * </li>
 	 * </ol>
 	 * 
 	 * @see Results
@@ -142,6 +148,144 @@ public interface Session {
 	     * @see Connection#prepareStatement(String, int)
 		 */
 		boolean returnGeneratedKey() default false;
+		
+		/**
+		 * Executes the command once for each element of the method's only parameter,
+		 * which must be an {@link Iterable}, {@link java.util.Iterator} or object array,
+		 * in batches of {@link #batchSize()} commands.
+		 * An {@code Object[]} or {@link java.util.List} element supplies the statement parameters
+		 * {@code $1, $2 ...}; any other element supplies {@code $1}.
+		 * The method may return {@code void}, or {@code int} for the total updated row count,
+		 * or a {@link java.util.List} of generated keys if {@link #returnGeneratedKey()} is set.
+		 * <p>
+		 * If this is not set, a collection parameter supplies a single statement parameter like any other
+		 */
+		boolean bulk() default false;
+		
+		/**
+		 * The number of commands executed in each JDBC batch
+		 * when the method is a {@link #bulk()} update
+		 */
+		int batchSize() default 100;
+		
+		/**
+		 * The tables that the commands write to, which are inferred from the command text if not specified.
+		 * When the commands are executed, cached results that depend on the tables are evicted
+		 * 
+		 * @see Cached#tables()
+		 */
+		String[] tables() default {};
+	}
+
+	/**
+	 * Caches the values returned by a {@link Query} method that returns a single selected value,
+	 * keyed by the method's argument values.
+	 * A cached value is returned without using the session's connection.
+	 * <p>
+	 * The cache is shared by all sessions of the interface created for the same connection source
+	 */
+	@Documented @Target(ElementType.METHOD) @Retention(RetentionPolicy.RUNTIME)
+	public @interface Cached {
+		
+		/**
+		 * The time in milliseconds for which a cached value is valid,
+		 * or 0 if values remain valid until they are evicted
+		 */
+		long ttl() default 0;
+		
+		/**
+		 * The maximum number of cached values;
+		 * the least recently used values are evicted first
+		 */
+		int maxEntries() default 1000;
+		
+		/**
+		 * The tables that the query reads from, which are inferred from the query text if not specified.
+		 * Cached values are evicted when an {@link Update} method of a session created
+		 * for the same connection source writes to one of the tables,
+		 * or, within {@link Connecting#transact(Command) transact}, when its transaction commits
+		 */
+		String[] tables() default {};
+	}
+
+	/**
+	 * Combines concurrent calls of a {@link Query} method that returns a single selected value.
+	 * A call made while another call with equal arguments is executing, in any session
+	 * of the interface created for the same connection source, waits for that execution
+	 * and returns its result, or throws its exception, rather than querying the database again.
+	 * <p>
+	 * This can be combined with {@link Cached}, so that only one call loads a missing value
+	 */
+	@Documented @Target(ElementType.METHOD) @Retention(RetentionPolicy.RUNTIME)
+	public @interface SingleFlight {
+	}
+
+	/**
+	 * Reads the rows of a {@link Query} method in pages, using keyset pagination.
+	 * The query is executed for each page with a limit of {@link #size()} rows,
+	 * ordered by the {@link #key()} column and, after the first page,
+	 * restricted to the rows whose key is greater than the last key read.
+	 * The method's {@link Results} or {@link Cursor} reads all the pages as one continuous set of rows,
+	 * so each database round trip is short and at most one page is held open.
+	 * <p>
+	 * The query must be forward-only and read-only, and a trailing {@code ORDER BY} clause is replaced
+	 */
+	@Documented @Target(ElementType.METHOD) @Retention(RetentionPolicy.RUNTIME)
+	public @interface Paged {
+		
+		/**
+		 * The label of a selected column whose values are unique and not null
+		 */
+		String key();
+		
+		/**
+		 * The maximum number of rows fetched by each execution of the query
+		 */
+		int size() default 1000;
+	}
+
+	/**
+	 * Executes a {@link Query} or {@link Update} method on every shard of a session
+	 * created by {@link ShardedConnecting}, rather than on the one shard chosen by its router.
+	 * The shards are queried concurrently.
+	 * <p>
+	 * A query must return a {@link Results} interface, {@link Cursor}, {@link java.util.Iterator}
+	 * or {@link Iterable}, which reads the rows of all the shards merged in {@link #key()} order,
+	 * so the query should be ordered by the same key.
+	 * An update may return {@code void}, or {@code int} for the total updated row count of all the shards.
+	 * Sessions that are not sharded ignore this annotation
+	 */
+	@Documented @Target(ElementType.METHOD) @Retention(RetentionPolicy.RUNTIME)
+	public @interface Scatter {
+		
+		/**
+		 * The label of the selected column that orders the rows of each shard,
+		 * or an empty string to read the rows of each shard in turn.
+		 * The rows of a query that returns single values are ordered by the values themselves
+		 * if any key is given
+		 */
+		String key() default "";
+	}
+
+	/**
+	 * Queues the command of an {@link Update} method in a JDBC batch,
+	 * rather than executing it when the method is invoked.
+	 * The annotated method must have a single command and return {@code void}
+	 * <p>
+	 * Queued commands are executed when the batch reaches {@link #size()} commands,
+	 * when any other method of the session is invoked,
+	 * and when the session is {@link Session#flush() flushed} or closed.
+	 * Update counts and generated keys are reported by {@link Session#flush()}
+	 * 
+	 * @see java.sql.PreparedStatement#addBatch()
+	 */
+	@Documented @Target(ElementType.METHOD) @Retention(RetentionPolicy.RUNTIME)
+	public @interface Batch {
+		
+		/**
+		 * The number of commands that are queued before the batch is executed
+		 */
+		int size() default 100;
 	}
 
 	/**
@@ -167,7 +311,17 @@ public interface Session {
 	Connection connection();
 	
 	/**
-	 * Calls {@link Connection#close()} on the underlying connection
+	 * Executes any commands queued by {@link Batch} methods
+	 * 
+	 * @return the results of the commands executed since the last flush,
+	 * including batches that were executed because they were full
+	 * @throws DataException
+	 */
+	BatchResults flush() throws DataException;
+	
+	/**
+	 * Executes any queued commands,
+	 * and calls {@link Connection#close()} on the underlying connection
 
 	 * @throws DataException
 	 */
@@ -0,0 +1,337 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.copalis.sql.results.MergedResults;
+
+/**
+ * A factory that instantiates {@link Session} interfaces over several databases,
+ * each holding a shard of the data.
+ * <p>
+ * Each method call is executed by the session of the one shard chosen by a {@link Router}
+ * from the method's arguments, except for {@link Session.Scatter} methods,
+ * which are executed on every shard concurrently.
+ * A shard's connection is opened when the session first uses it.
+ * <p>
+ * Commands executed on several shards are not atomic:
+ * each shard commits or rolls back independently
+ *
+ * @param <T> the type of {@link Session} that this creates
+ * @author gilesjb
+ * @see Connecting#sharded(Class, Router, List)
+ */
+public class ShardedConnecting<T extends Session> {
+	
+	/**
+	 * Chooses the shard that executes a method call
+	 */
+	public interface Router {
+		
+		/**
+		 * @param method the invoked session method
+		 * @param args the method arguments, which may be null
+		 * @param shards the number of shards
+		 * @return the index of a shard, from 0 to {@code shards - 1}
+		 */
+		int shard(Method method, Object[] args, int shards);
+	}
+	
+	private final Class<T> iface;
+	private final Router router;
+	private final List<Connecting<T>> shards;
+	private final Executor executor;
+	
+	ShardedConnecting(Class<T> iface, Router router, List<Connecting<T>> shards, Executor executor) {
+		for (Method method : iface.getMethods()) {
+			if (method.isAnnotationPresent(Session.Scatter.class)) checkScatter(method);
+		}
+		this.iface = iface;
+		this.router = router;
+		this.shards = Collections.unmodifiableList(new ArrayList<Connecting<T>>(shards));
+		this.executor = executor;
+	}
+	
+	private static void checkScatter(Method method) {
+		Class<?> type = method.getReturnType();
+		if (method.isAnnotationPresent(Session.Query.class)? !Results.class.isAssignableFrom(type)
+				&& type != Cursor.class && type != Iterator.class && type != Iterable.class
+				: type != void.class && type != int.class) {
+			throw new IllegalArgumentException("Scatter method " + method.getName() + " cannot return " + type.getName());
+		}
+	}
+	
+	/**
+	 * Creates a router that chooses a shard by the hash of one argument.
+	 * A null argument is routed to the first shard
+	 * 
+	 * @param param the 1-based index of the method parameter whose value is the shard key
+	 * @return a new {@link Router}
+	 */
+	public static Router byParameter(final int param) {
+		return new Router() {
+			public int shard(Method method, Object[] args, int shards) {
+				if (args == null || param < 1 || param > args.length) {
+					throw new IllegalArgumentException("Method " + method.getName() + " has no parameter $" + param + " to route by");
+				}
+				Object key = args[param - 1];
+				return key == null? 0 : ((key.hashCode() ^ (key.hashCode() >>> 16)) & Integer.MAX_VALUE) % shards;
+			}
+		};
+	}
+	
+	/**
+	 * Creates a {@link ShardedConnecting} that runs the concurrent queries of {@link Session.Scatter} methods
+	 * on an executor.
+	 * By default, they run on a shared pool of daemon threads
+	 * 
+	 * @param executor an {@link Executor}
+	 * @return a {@link ShardedConnecting} that creates the same session type
+	 */
+	public ShardedConnecting<T> using(Executor executor) {
+		return new ShardedConnecting<T>(iface, router, shards, executor);
+	}
+	
+	public List<Connecting<T>> shards() {
+		return shards;
+	}
+	
+	/**
+	 * Creates an instance of the session interface whose shard connections are opened as they are needed.
+	 * {@link Session#connection()} is not supported, since the session has no single connection
+	 * 
+	 * @return a new instance of the session interface
+	 */
+	public final T open() {
+		return iface.cast(Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[] {iface}, new Handler()));
+	}
+	
+	/**
+	 * Executes a {@link Session.Command} with a sharded session, and finally closes the session
+	 * 
+	 * @param command a {@link Session.Command} object that accepts {@link Session}s
+	 * created by this {@link ShardedConnecting}
+	 * @throws DataException wraps any {@link SQLException} that is thrown during execution
+	 */
+	public final void execute(Session.Command<T> command) throws DataException {
+		T session = open();
+		try {
+			command.execute(session);
+		} catch (SQLException e) {
+			throw DataException.wrap(e);
+		} finally {
+			session.close();
+		}
+	}
+	
+	@Override public String toString() {
+		return "ShardedConnecting " + iface.getName() + ": " + shards.size() + " shards";
+	}
+	
+	/**
+	 * Dispatches the calls of a sharded session
+	 */
+	private class Handler implements InvocationHandler {
+		private final List<T> sessions = new ArrayList<T>(Collections.<T>nCopies(shards.size(), null));
+		
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (method.getDeclaringClass() == Object.class) {
+				if (name.equals("equals")) return proxy == args[0];
+				if (name.equals("hashCode")) return System.identityHashCode(proxy);
+				return ShardedConnecting.this.toString();
+			}
+			if (method.getDeclaringClass() == Session.class) {
+				if (name.equals("connection")) {
+					throw new UnsupportedOperationException("A sharded session has no single connection");
+				}
+				return name.equals("flush")? flush() : close();
+			}
+			
+			Session.Scatter scatter = method.getAnnotation(Session.Scatter.class);
+			if (scatter != null) return scatter(method, args, scatter.key());
+			
+			int shard = router.shard(method, args, shards.size());
+			if (shard < 0 || shard >= shards.size()) {
+				throw new IndexOutOfBoundsException("Method " + method.getName() + " routed to shard " + shard
+						+ " of " + shards.size());
+			}
+			return call(shard, method, args);
+		}
+		
+		private Object call(int shard, Method method, Object[] args) throws Throwable {
+			T session = sessions.get(shard);
+			if (session == null) {
+				session = shards.get(shard).open();
+				sessions.set(shard, session);
+			}
+			try {
+				return method.invoke(session, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+		
+		/**
+		 * Opens any missing shard sessions, then calls the method on each shard,
+		 * running the first in this thread and the others on the executor
+		 */
+		private Object scatter(final Method method, final Object[] args, String key) throws Throwable {
+			for (int shard = 0; shard < shards.size(); shard++) {
+				if (sessions.get(shard) == null) sessions.set(shard, shards.get(shard).open());
+			}
+			List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>(shards.size());
+			for (int shard = 0; shard < shards.size(); shard++) {
+				final T session = sessions.get(shard);
+				tasks.add(new FutureTask<Object>(new Callable<Object>() {
+					public Object call() throws Exception {
+						return method.invoke(session, args);
+					}
+				}));
+			}
+			for (int shard = 1; shard < tasks.size(); shard++) {
+				executor.execute(tasks.get(shard));
+			}
+			tasks.get(0).run();
+			
+			List<Object> results = new ArrayList<Object>(tasks.size());
+			Throwable failure = null;
+			for (FutureTask<Object> task : tasks) {
+				try {
+					results.add(task.get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (failure == null) {
+						failure = cause instanceof InvocationTargetException? cause.getCause() : cause;
+					}
+				}
+			}
+			if (failure != null) {
+				for (Object result : results) {
+					discard(result);
+				}
+				throw failure;
+			}
+			return merge(method.getReturnType(), results, key);
+		}
+		
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private Object merge(Class<?> type, List<Object> results, String key) {
+			if (type == void.class) return null;
+			if (type == int.class) {
+				int total = 0;
+				for (Object result : results) {
+					total += (Integer) result;
+				}
+				return total;
+			}
+			if (Results.class.isAssignableFrom(type)) {
+				return MergedResults.results((List) results, key);
+			}
+			List<Iterator<Object>> sources = new ArrayList<Iterator<Object>>(results.size());
+			for (Object result : results) {
+				sources.add(result instanceof Iterator? (Iterator<Object>) result : ((Iterable<Object>) result).iterator());
+			}
+			return MergedResults.cursor(sources, key);
+		}
+		
+		private void discard(Object result) {
+			if (result instanceof Results) {
+				((Results) result).close();
+			} else if (result instanceof Closeable) {
+				try {
+					((Closeable) result).close();
+				} catch (IOException e) {} // Already failing - report the original failure
+			}
+		}
+		
+		private BatchResults flush() {
+			List<int[]> counts = new ArrayList<int[]>();
+			List<Object> keys = new ArrayList<Object>();
+			int size = 0;
+			for (T session : sessions) {
+				if (session != null) {
+					BatchResults results = session.flush();
+					counts.add(results.counts());
+					size += counts.get(counts.size() - 1).length;
+					keys.addAll(results.keys());
+				}
+			}
+			int[] all = new int[size];
+			int i = 0;
+			for (int[] shard : counts) {
+				System.arraycopy(shard, 0, all, i, shard.length);
+				i += shard.length;
+			}
+			return new BatchResults(all, keys);
+		}
+		
+		private Object close() {
+			RuntimeException failure = null;
+			for (int shard = 0; shard < sessions.size(); shard++) {
+				T session = sessions.get(shard);
+				if (session != null) {
+					sessions.set(shard, null);
+					try {
+						session.close();
+					} catch (RuntimeException e) {
+						if (failure == null) failure = e;
+					}
+				}
+			}
+			if (failure != null) throw failure;
+			return null;
+		}
+	}
+	
+	/**
+	 * The executor used when none is given
+	 */
+	static Executor shared() {
+		return Shared.EXECUTOR;
+	}
+	
+	private static class Shared {
+		static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Shard executor " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+}
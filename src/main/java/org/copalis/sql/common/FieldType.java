@@ -30,6 +30,7 @@ public class FieldType {
 		if (type == long.class) return Long.class;
 		if (type == float.class) return Float.class;
 		if (type == double.class) return Double.class;
+		if (type == boolean.class) return Boolean.class;
 		return Void.class;
 	}
 	
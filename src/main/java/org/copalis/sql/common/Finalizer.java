@@ -18,8 +18,10 @@ package org.copalis.sql.common;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import org.copalis.sql.DataException;
+import org.copalis.sql.Session;
 
 /**
  * @author gilesjb
@@ -70,6 +72,13 @@ public class Finalizer {
 			}});
 	}
 	
+	public void close(final Statement statement) {
+		operate(new Operation() {
+			public void run() throws SQLException {
+				statement.close();
+			}});
+	}
+	
 	public void close(final Connection connection) {
 		operate(new Operation() {
 			public void run() throws SQLException {
@@ -77,6 +86,17 @@ public class Finalizer {
 			}});
 	}
 	
+	public void close(final Session session) {
+		operate(new Operation() {
+			public void run() throws SQLException {
+				try {
+					session.close();
+				} catch (DataException e) {
+					throw e.getCause();
+				}
+			}});
+	}
+	
 	public void rollback(final Connection connection) {
 		operate(new Operation() {
 			public void run() throws SQLException {
@@ -0,0 +1,70 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.common;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Locates classes generated at compile time by the copalis.sql annotation processor.
+ * <p>
+ * A generated implementation of an interface is named by appending {@link #SUFFIX}
+ * to the binary name of the interface, and has a public no-argument constructor
+ * that creates a <i>prototype</i> instance, from which working instances are created
+ * without reflection
+ *
+ * @author gilesjb
+ */
+public class Generated {
+
+	public static final String SUFFIX = "$$Sql";
+
+	/**
+	 * Gets the name of the generated implementation of a type
+	 * @param binaryName the binary name of the implemented interface
+	 * @return the binary name of the generated class
+	 */
+	public static String className(String binaryName) {
+		return binaryName + SUFFIX;
+	}
+
+	/**
+	 * Creates a prototype instance of the generated implementation of an interface
+	 * @param type the implemented interface
+	 * @param base the class that generated implementations of the interface extend
+	 * @return a prototype instance, or null if there is no generated implementation
+	 */
+	public static <T> T prototype(Class<?> type, Class<T> base) {
+		Class<?> impl;
+		try {
+			impl = Class.forName(className(type.getName()), true, type.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+		if (!type.isAssignableFrom(impl) || !base.isAssignableFrom(impl)) return null;
+
+		try {
+			return base.cast(impl.getConstructor().newInstance());
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException(e.getCause());
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException(e);
+		} catch (InstantiationException e) {
+			throw new RuntimeException(e);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -33,4 +33,21 @@ public class Name {
 	public static String of(Class<?> type) {
 		return type.getCanonicalName();
 	}
+	
+	/**
+	 * Gets the signature of a method, consisting of its name and
+	 * the canonical names of its parameter types,
+	 * eg <code>find(java.lang.String,int)</code>
+	 * @param method a method
+	 * @return the method signature
+	 */
+	public static String signature(Method method) {
+		StringBuilder str = new StringBuilder(method.getName()).append('(');
+		String separator = "";
+		for (Class<?> type : method.getParameterTypes()) {
+			str.append(separator).append(of(type));
+			separator = ",";
+		}
+		return str.append(')').toString();
+	}
 }
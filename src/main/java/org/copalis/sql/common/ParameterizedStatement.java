@@ -15,13 +15,24 @@
  */
 package org.copalis.sql.common;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.Date;
 import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 
@@ -35,9 +46,133 @@ public class ParameterizedStatement {
 	
 	private static final char ESCAPE = '$';
 	private static final int RADIX = 10;
+	
+	private static final Pattern TOKEN = Pattern.compile("'[^']*'|\"[^\"]*\"|[A-Za-z_][\\w$.\"]*|[,();]");
+	private static final Set<String> LIST_END = new HashSet<String>(Arrays.asList(
+			"WHERE", "GROUP", "ORDER", "HAVING", "UNION", "EXCEPT", "INTERSECT", "LIMIT", "SET", "VALUES",
+			"ON", "INNER", "LEFT", "RIGHT", "FULL", "CROSS", "NATURAL", "JOIN", ")", ";"));
 
 	private final LinkedList<Integer> indexes = new LinkedList<Integer>();
 	private final StringBuilder text = new StringBuilder();
+	private final int[] args;
+	private volatile Bindings bindings = null;
+	
+	/**
+	 * Sets a parameter with the setter of its declared type
+	 */
+	private enum Binding {
+		INT(Types.INTEGER) {
+			void set(PreparedStatement stmt, int index, Object value) throws SQLException {
+				stmt.setInt(index, (Integer) value);
+			}
+		},
+		LONG(Types.BIGINT) {
+			void set(PreparedStatement stmt, int index, Object value) throws SQLException {
+				stmt.setLong(index, (Long) value);
+			}
+		},
+		SHORT(Types.SMALLINT) {
+			void set(PreparedStatement stmt, int index, Object value) throws SQLException {
+				stmt.setShort(index, (Short) value);
+			}
+		},
+		BYTE(Types.TINYINT) {
+			void set(PreparedStatement stmt, int index, Object value) throws SQLException {
+				stmt.setByte(index, (Byte) value);
+			}
+		},
+		DOUBLE(Types.DOUBLE) {
+			void set(PreparedStatement stmt, int index, Object value) throws SQLException {
+				stmt.setDouble(index, (Double) value);
+			}
+		},
+		FLOAT(Types.REAL) {
+			void set(PreparedStatement stmt, int index, Object value) throws SQLException {
+				stmt.setFloat(index, (Float) value);
+			}
+		},
+		BOOLEAN(Types.BOOLEAN) {
+			void set(PreparedStatement stmt, int index, Object value) throws SQLException {
+				stmt.setBoolean(index, (Boolean) value);
+			}
+		},
+		STRING(Types.VARCHAR) {
+			void set(PreparedStatement stmt, int index, Object value) throws SQLException {
+				stmt.setString(index, (String) value);
+			}
+		},
+		DECIMAL(Types.DECIMAL) {
+			void set(PreparedStatement stmt, int index, Object value) throws SQLException {
+				stmt.setBigDecimal(index, (BigDecimal) value);
+			}
+		},
+		BYTES(Types.VARBINARY) {
+			void set(PreparedStatement stmt, int index, Object value) throws SQLException {
+				stmt.setBytes(index, (byte[]) value);
+			}
+		},
+		DATE(Types.DATE) {
+			void set(PreparedStatement stmt, int index, Object value) throws SQLException {
+				stmt.setDate(index, (Date) value);
+			}
+		},
+		TIME(Types.TIME) {
+			void set(PreparedStatement stmt, int index, Object value) throws SQLException {
+				stmt.setTime(index, (Time) value);
+			}
+		},
+		TIMESTAMP(Types.TIMESTAMP) {
+			void set(PreparedStatement stmt, int index, Object value) throws SQLException {
+				stmt.setTimestamp(index, (Timestamp) value);
+			}
+		},
+		OBJECT(UNKNOWN) {
+			void set(PreparedStatement stmt, int index, Object value) throws SQLException {
+				stmt.setObject(index, value);
+			}
+		};
+		
+		final int sqlType;
+		
+		private Binding(int sqlType) {
+			this.sqlType = sqlType;
+		}
+		
+		abstract void set(PreparedStatement stmt, int index, Object value) throws SQLException;
+		
+		static Binding forType(Class<?> type) {
+			type = FieldType.wrapperType(type);
+			if (type == Integer.class) return INT;
+			if (type == Long.class) return LONG;
+			if (type == Short.class) return SHORT;
+			if (type == Byte.class) return BYTE;
+			if (type == Double.class) return DOUBLE;
+			if (type == Float.class) return FLOAT;
+			if (type == Boolean.class) return BOOLEAN;
+			if (type == String.class) return STRING;
+			if (type == BigDecimal.class) return DECIMAL;
+			if (type == byte[].class) return BYTES;
+			if (type == Date.class) return DATE;
+			if (type == Time.class) return TIME;
+			if (type == Timestamp.class) return TIMESTAMP;
+			return OBJECT;
+		}
+	}
+	
+	/**
+	 * The bindings of the statement parameters, and the SQL types with which null values are set
+	 */
+	private static class Bindings {
+		final Binding[] bindings;
+		final int[] nullTypes;
+		
+		Bindings(Binding[] bindings, int[] nullTypes) {
+			this.bindings = bindings;
+			this.nullTypes = nullTypes;
+		}
+	}
+	
+	private static final int UNKNOWN = Integer.MIN_VALUE;
 	
 	/**
 	 * State machine for parsing escapes and parameter references
@@ -95,6 +230,12 @@ public class ParameterizedStatement {
 			}
 		}
 		parser.end();
+		
+		this.args = new int[indexes.size()];
+		int i = 0;
+		for (int idx : indexes) {
+			args[i++] = idx - 1;
+		}
 	}
 	
 	public String text() {
@@ -106,7 +247,50 @@ public class ParameterizedStatement {
 	}
 	
 	/**
-	 * Creates a PreparedStatement and validates it against a method's parameters
+	 * Infers the names of the tables that the statement reads or writes,
+	 * from the names that follow {@code FROM}, {@code JOIN}, {@code INTO} and {@code UPDATE}.
+	 * Schema qualifiers are removed and names are converted to upper case.
+	 * <p>
+	 * The inference does not parse SQL fully, so it may miss tables named
+	 * in unusual constructs
+	 * 
+	 * @return a set of table names
+	 */
+	public Set<String> tables() {
+		Set<String> tables = new LinkedHashSet<String>();
+		Matcher tokens = TOKEN.matcher(text);
+		boolean fromList = false, expectTable = false;
+		String previous = "";
+		while (tokens.find()) {
+			String token = tokens.group().toUpperCase();
+			if (token.startsWith("'")) continue;
+			if (expectTable) {
+				expectTable = false;
+				if (!token.equals("(") && !token.equals("SELECT")) {
+					String name = token.substring(token.lastIndexOf('.') + 1);
+					tables.add(name.replace("\"", ""));
+					previous = token;
+					continue;
+				}
+			}
+			if (token.equals("FROM") || token.equals("JOIN") || token.equals("INTO") ||
+					token.equals("UPDATE") && !previous.equals("FOR")) {
+				expectTable = true;
+				fromList = token.equals("FROM");
+			} else if (token.equals(",") && fromList) {
+				expectTable = true;
+			} else if (LIST_END.contains(token)) {
+				fromList = false;
+			}
+			previous = token;
+		}
+		return tables;
+	}
+	
+	/**
+	 * Creates a PreparedStatement and validates it against a method's parameters.
+	 * The parameters are then set by {@link #setParameters(PreparedStatement, Object[])}
+	 * with the setters of their declared types, and null values with their SQL types
 	 * @param connection
 	 * @param paramTypes
 	 * @return a PreparedStatement created from connection
@@ -117,7 +301,9 @@ public class ParameterizedStatement {
 	public PreparedStatement prepare(Connection connection, Class<?>... paramTypes) throws SQLException {
 		try {
 			PreparedStatement stmt = connection.prepareStatement(text());
-			validate(stmt.getParameterMetaData(), paramTypes);
+			ParameterMetaData meta = stmt.getParameterMetaData();
+			validate(meta, paramTypes);
+			bind(meta, paramTypes);
 			return stmt;
 		} catch (SQLException e) {
 			throw new SQLException("Error in statement: " + text(), e);
@@ -153,10 +339,34 @@ public class ParameterizedStatement {
 		}
 	}
 	
+	private void bind(ParameterMetaData meta, Class<?>... paramTypes) {
+		Binding[] bindings = new Binding[args.length];
+		int[] nullTypes = new int[args.length];
+		for (int i = 0; i < args.length; i++) {
+			bindings[i] = Binding.forType(paramTypes[args[i]]);
+			nullTypes[i] = bindings[i].sqlType;
+			if (meta != null) {
+				try {
+					nullTypes[i] = meta.getParameterType(i + 1);
+				} catch (SQLException e) {} // No parameter data available - use the declared type
+			}
+		}
+		this.bindings = new Bindings(bindings, nullTypes);
+	}
+	
 	public PreparedStatement setParameters(PreparedStatement stmt, Object[] args) throws SQLException {
-		int param = 1;
-		for (int idx : indexes) {
-			stmt.setObject(param++, args[idx - 1]);
+		Bindings bound = bindings;
+		for (int i = 0; i < this.args.length; i++) {
+			Object value = args[this.args[i]];
+			if (bound == null) {
+				stmt.setObject(i + 1, value);
+			} else if (value != null) {
+				bound.bindings[i].set(stmt, i + 1, value);
+			} else if (bound.nullTypes[i] != UNKNOWN) {
+				stmt.setNull(i + 1, bound.nullTypes[i]);
+			} else {
+				stmt.setObject(i + 1, null);
+			}
 		}
 		return stmt;
 	}
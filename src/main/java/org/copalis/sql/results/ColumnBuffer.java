@@ -0,0 +1,267 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.results;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.copalis.sql.DataException;
+import org.copalis.sql.Results;
+import org.copalis.sql.common.Finalizer;
+
+/**
+ * A detached, column-oriented copy of the rows of a {@link ResultSet}.
+ * <p>
+ * Each column is stored in a single array: {@code int}, {@code long} and {@code double}
+ * columns in primitive arrays, strings as codes into a dictionary of distinct values,
+ * and {@code byte[]} columns in one contiguous array. Other column types are stored as objects.
+ * <p>
+ * {@link Results} can be {@link #detach(Results) detached} from their connection
+ * into a buffer and read after the session is closed
+ *
+ * @author gilesjb
+ */
+public class ColumnBuffer extends RowBuffer {
+
+	private abstract static class Column {
+		final BitSet nulls = new BitSet();
+
+		abstract void read(ResultSet results, int index, int row) throws SQLException;
+		abstract Object value(int row);
+		abstract void trim(int rows);
+
+		Object get(int row) {
+			return nulls.get(row)? null : value(row);
+		}
+
+		static int grown(int length) {
+			return Math.max(16, length * 2);
+		}
+	}
+
+	private static class IntColumn extends Column {
+		int[] values = new int[0];
+
+		void read(ResultSet results, int index, int row) throws SQLException {
+			if (row == values.length) values = Arrays.copyOf(values, grown(row));
+			values[row] = results.getInt(index);
+			if (results.wasNull()) nulls.set(row);
+		}
+
+		Object value(int row) {
+			return values[row];
+		}
+
+		void trim(int rows) {
+			values = Arrays.copyOf(values, rows);
+		}
+	}
+
+	private static class LongColumn extends Column {
+		long[] values = new long[0];
+
+		void read(ResultSet results, int index, int row) throws SQLException {
+			if (row == values.length) values = Arrays.copyOf(values, grown(row));
+			values[row] = results.getLong(index);
+			if (results.wasNull()) nulls.set(row);
+		}
+
+		Object value(int row) {
+			return values[row];
+		}
+
+		void trim(int rows) {
+			values = Arrays.copyOf(values, rows);
+		}
+	}
+
+	private static class DoubleColumn extends Column {
+		double[] values = new double[0];
+
+		void read(ResultSet results, int index, int row) throws SQLException {
+			if (row == values.length) values = Arrays.copyOf(values, grown(row));
+			values[row] = results.getDouble(index);
+			if (results.wasNull()) nulls.set(row);
+		}
+
+		Object value(int row) {
+			return values[row];
+		}
+
+		void trim(int rows) {
+			values = Arrays.copyOf(values, rows);
+		}
+	}
+
+	private static class StringColumn extends Column {
+		int[] codes = new int[0];
+		final List<String> dictionary = new ArrayList<String>();
+		Map<String, Integer> lookup = new HashMap<String, Integer>();
+
+		void read(ResultSet results, int index, int row) throws SQLException {
+			if (row == codes.length) codes = Arrays.copyOf(codes, grown(row));
+			String value = results.getString(index);
+			if (value == null) {
+				nulls.set(row);
+				return;
+			}
+			Integer code = lookup.get(value);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.add(value);
+				lookup.put(value, code);
+			}
+			codes[row] = code;
+		}
+
+		Object value(int row) {
+			return dictionary.get(codes[row]);
+		}
+
+		void trim(int rows) {
+			codes = Arrays.copyOf(codes, rows);
+			lookup = null;
+		}
+	}
+
+	private static class BytesColumn extends Column {
+		byte[] data = new byte[0];
+		int[] ends = new int[0];
+		int size = 0;
+
+		void read(ResultSet results, int index, int row) throws SQLException {
+			if (row == ends.length) ends = Arrays.copyOf(ends, grown(row));
+			byte[] value = results.getBytes(index);
+			if (value == null) {
+				nulls.set(row);
+			} else {
+				if (size + value.length > data.length) {
+					data = Arrays.copyOf(data, Math.max(size + value.length, data.length * 2));
+				}
+				System.arraycopy(value, 0, data, size, value.length);
+				size += value.length;
+			}
+			ends[row] = size;
+		}
+
+		Object value(int row) {
+			return Arrays.copyOfRange(data, row == 0? 0 : ends[row - 1], ends[row]);
+		}
+
+		void trim(int rows) {
+			data = Arrays.copyOf(data, size);
+			ends = Arrays.copyOf(ends, rows);
+		}
+	}
+
+	private static class ObjectColumn extends Column {
+		Object[] values = new Object[0];
+
+		void read(ResultSet results, int index, int row) throws SQLException {
+			if (row == values.length) values = Arrays.copyOf(values, grown(row));
+			values[row] = results.getObject(index);
+			if (values[row] == null) nulls.set(row);
+		}
+
+		Object value(int row) {
+			return values[row];
+		}
+
+		void trim(int rows) {
+			values = Arrays.copyOf(values, rows);
+		}
+	}
+
+	private final Column[] columns;
+	private final int rows;
+
+	private ColumnBuffer(ResultSet results) throws SQLException {
+		super(results.getMetaData());
+		ResultSetMetaData source = results.getMetaData();
+		this.columns = new Column[source.getColumnCount()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = column(source.getColumnClassName(i + 1));
+		}
+
+		int row = 0;
+		while (results.next()) {
+			for (int i = 0; i < columns.length; i++) {
+				columns[i].read(results, i + 1, row);
+			}
+			row++;
+		}
+		for (Column column : columns) {
+			column.trim(row);
+		}
+		this.rows = row;
+	}
+
+	private static Column column(String className) {
+		if (Integer.class.getName().equals(className)) return new IntColumn();
+		if (Long.class.getName().equals(className)) return new LongColumn();
+		if (Double.class.getName().equals(className)) return new DoubleColumn();
+		if (String.class.getName().equals(className)) return new StringColumn();
+		if (byte[].class.getName().equals(className)) return new BytesColumn();
+		return new ObjectColumn();
+	}
+
+	/**
+	 * Reads the remaining rows of a result set, which is left open
+	 * @param results a {@link ResultSet}
+	 * @return a new {@link ColumnBuffer} containing the rows
+	 * @throws SQLException
+	 */
+	public static ColumnBuffer fetch(ResultSet results) throws SQLException {
+		return new ColumnBuffer(results);
+	}
+
+	/**
+	 * Reads the remaining rows of a {@link Results} object into a buffer and closes its result set
+	 * @param results a {@link Results} object
+	 * @return a {@link Results} object of the same type that reads the buffered rows
+	 * @throws DataException
+	 */
+	public static <R extends Results> R detach(R results) throws DataException {
+		ResultSet source = results.results();
+		Finalizer handler = new Finalizer();
+		try {
+			return wrap(results, fetch(source).resultSet());
+		} catch (Exception e) {
+			throw handler.wrap(e);
+		} finally {
+			handler.close(source);
+		}
+	}
+
+	public int rows() {
+		return rows;
+	}
+
+	public Object get(int row, int column) {
+		return columns[column - 1].get(row);
+	}
+
+	@Override public String toString() {
+		return "ColumnBuffer: " + rows + " rows, " + columns.length + " columns";
+	}
+}
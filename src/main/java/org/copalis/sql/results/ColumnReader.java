@@ -0,0 +1,132 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.results;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads a column with the {@link ResultSet} getter that matches the declared type of a getter method,
+ * so that the driver does not have to infer a type for each value read.
+ * <p>
+ * Primitive readers follow JDBC semantics and return zero or {@code false} for SQL {@code NULL};
+ * readers for wrapper types return {@code null}
+ *
+ * @author gilesjb
+ */
+enum ColumnReader {
+	INT(int.class) {
+		Object read(ResultSet results, int index) throws SQLException {
+			return results.getInt(index);
+		}
+	},
+	LONG(long.class) {
+		Object read(ResultSet results, int index) throws SQLException {
+			return results.getLong(index);
+		}
+	},
+	DOUBLE(double.class) {
+		Object read(ResultSet results, int index) throws SQLException {
+			return results.getDouble(index);
+		}
+	},
+	FLOAT(float.class) {
+		Object read(ResultSet results, int index) throws SQLException {
+			return results.getFloat(index);
+		}
+	},
+	SHORT(short.class) {
+		Object read(ResultSet results, int index) throws SQLException {
+			return results.getShort(index);
+		}
+	},
+	BYTE(byte.class) {
+		Object read(ResultSet results, int index) throws SQLException {
+			return results.getByte(index);
+		}
+	},
+	BOOLEAN(boolean.class) {
+		Object read(ResultSet results, int index) throws SQLException {
+			return results.getBoolean(index);
+		}
+	},
+	INTEGER_OBJECT(Integer.class) {
+		Object read(ResultSet results, int index) throws SQLException {
+			int value = results.getInt(index);
+			return results.wasNull()? null : value;
+		}
+	},
+	LONG_OBJECT(Long.class) {
+		Object read(ResultSet results, int index) throws SQLException {
+			long value = results.getLong(index);
+			return results.wasNull()? null : value;
+		}
+	},
+	DOUBLE_OBJECT(Double.class) {
+		Object read(ResultSet results, int index) throws SQLException {
+			double value = results.getDouble(index);
+			return results.wasNull()? null : value;
+		}
+	},
+	BIG_DECIMAL(BigDecimal.class) {
+		Object read(ResultSet results, int index) throws SQLException {
+			return results.getBigDecimal(index);
+		}
+	},
+	STRING(String.class) {
+		Object read(ResultSet results, int index) throws SQLException {
+			return results.getString(index);
+		}
+	},
+	BYTES(byte[].class) {
+		Object read(ResultSet results, int index) throws SQLException {
+			return results.getBytes(index);
+		}
+	},
+	OBJECT(Object.class) {
+		Object read(ResultSet results, int index) throws SQLException {
+			return results.getObject(index);
+		}
+	};
+
+	private final Class<?> type;
+
+	private ColumnReader(Class<?> type) {
+		this.type = type;
+	}
+
+	/**
+	 * Reads the value of a column in the current row
+	 * @param results a {@link ResultSet}
+	 * @param index a 1-based column index
+	 * @return the column value
+	 * @throws SQLException
+	 */
+	abstract Object read(ResultSet results, int index) throws SQLException;
+
+	/**
+	 * Gets the reader for values of a declared type
+	 * @param type the return type of a getter method
+	 * @return a matching reader, or {@link #OBJECT} if there is no specific getter for the type
+	 */
+	static ColumnReader forType(Class<?> type) {
+		for (ColumnReader reader : values()) {
+			if (reader.type == type) return reader;
+		}
+		return OBJECT;
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.results;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import org.copalis.sql.DataException;
+import org.copalis.sql.Results;
+import org.copalis.sql.common.FieldType;
+
+/**
+ * A base class for {@link Results} implementations generated at compile time.
+ * <p>
+ * A generated class reads the fields named by its inferred {@code SELECT} list
+ * by fixed column index, using the {@link ResultSet} getter for each getter's declared type.
+ * Generated classes are only used for queries whose field names are inferred,
+ * since only then is the position of each field known in advance
+ *
+ * @author gilesjb
+ * @see org.copalis.sql.common.Generated
+ */
+public abstract class GeneratedResults implements Results, Results.Updatable {
+
+	private final ResultSet results;
+	private final String[] names;
+	private final int first;
+	RowCount count = null;
+
+	/**
+	 * @param results the wrapped result set, or null for a prototype
+	 * @param names the field names read by this object
+	 * @param first the column index of the first field
+	 */
+	protected GeneratedResults(ResultSet results, String[] names, int first) {
+		this.results = results;
+		this.names = names;
+		this.first = first;
+	}
+
+	/**
+	 * Creates a new instance that wraps a result set
+	 * @param results a {@link ResultSet} selected with {@link #getSQL(String)}
+	 * @return a new instance of the generated class
+	 */
+	protected abstract GeneratedResults create(ResultSet results);
+
+	/**
+	 * Verifies that each field type is compatible with its getter and setter
+	 * @param meta the metadata of a result set selected with {@link #getSQL(String)}
+	 * @throws SQLException
+	 */
+	protected abstract void validate(ResultSetMetaData meta) throws SQLException;
+
+	/**
+	 * Prepends a partial statement with {@code "SELECT }<i>fields</i>{@code FROM"}
+	 * @param query a partial SQL select statement
+	 * @return the full select statement
+	 * @see PropertiesResultSetWrapper#getSQL(String)
+	 */
+	public String getSQL(String query) {
+		if (query.toUpperCase().startsWith("SELECT ")) {
+			throw new IllegalArgumentException("Query already contain SELECT: " + query);
+		}
+
+		StringBuilder sql = new StringBuilder("SELECT ");
+		String separator = "";
+		for (String name : names) {
+			sql.append(separator).append(name);
+			separator = ",";
+		}
+		return sql.append(" FROM ").append(query).toString();
+	}
+
+	/**
+	 * Validates the generated class against a result set's metadata
+	 * @param meta the metadata of a result set selected with {@link #getSQL(String)}
+	 * @return a {@link ResultSetWrapper} that creates instances of the generated class
+	 */
+	public ResultSetWrapper<Results> wrapper(ResultSetMetaData meta) {
+		try {
+			validate(meta);
+		} catch (SQLException e) {
+			throw DataException.wrap(e);
+		}
+		return new ResultSetWrapper<Results>() {
+			public Results wrap(ResultSet results) {
+				return create(results);
+			}
+		};
+	}
+
+	/**
+	 * Verifies that a field type is compatible with a property's getter and setter types
+	 * @param meta result set metadata
+	 * @param index the field's column index
+	 * @param name the property name
+	 * @param gets the getter's return type, or null if there is no getter
+	 * @param sets the setter's parameter type, or null if there is no setter
+	 * @throws SQLException
+	 */
+	protected static void check(ResultSetMetaData meta, int index, String name, Class<?> gets, Class<?> sets)
+			throws SQLException {
+		Class<?> type = FieldType.forClassName(meta.getColumnClassName(index));
+		Class<?> boxed = FieldType.wrapperType(type);
+		if (gets != null && !FieldType.wrapperType(gets).isAssignableFrom(boxed)) {
+			throw new IllegalArgumentException("Getter for \"" + name + "\" incompatible with type: " + type.getName());
+		}
+		if (sets != null && !boxed.isAssignableFrom(FieldType.wrapperType(sets))) {
+			throw new IllegalArgumentException("Setter for \"" + name + "\" incompatible with type: " + type.getName());
+		}
+	}
+
+	protected final int getInt(int index) {
+		try {
+			return results.getInt(index);
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	protected final long getLong(int index) {
+		try {
+			return results.getLong(index);
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	protected final double getDouble(int index) {
+		try {
+			return results.getDouble(index);
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	protected final float getFloat(int index) {
+		try {
+			return results.getFloat(index);
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	protected final short getShort(int index) {
+		try {
+			return results.getShort(index);
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	protected final byte getByte(int index) {
+		try {
+			return results.getByte(index);
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	protected final boolean getBoolean(int index) {
+		try {
+			return results.getBoolean(index);
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	protected final Integer getNullableInt(int index) {
+		try {
+			int value = results.getInt(index);
+			return results.wasNull()? null : value;
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	protected final Long getNullableLong(int index) {
+		try {
+			long value = results.getLong(index);
+			return results.wasNull()? null : value;
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	protected final Double getNullableDouble(int index) {
+		try {
+			double value = results.getDouble(index);
+			return results.wasNull()? null : value;
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	protected final BigDecimal getBigDecimal(int index) {
+		try {
+			return results.getBigDecimal(index);
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	protected final String getString(int index) {
+		try {
+			return results.getString(index);
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	protected final byte[] getBytes(int index) {
+		try {
+			return results.getBytes(index);
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	protected final Object getObject(int index) {
+		try {
+			return results.getObject(index);
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	protected final void update(int index, Object value) {
+		try {
+			results.updateObject(index, value);
+		} catch (SQLException e) {
+			throw wrap(index, e);
+		}
+	}
+
+	private DataException wrap(int index, SQLException e) {
+		return DataException.wrap("In property: " + names[index - first], e);
+	}
+
+	public ResultSet results() {
+		return results;
+	}
+
+	public boolean next() {
+		try {
+			if (count == null) return results.next();
+			boolean more = results.next();
+			count.next(more);
+			return more;
+		} catch (SQLException e) {
+			throw DataException.wrap(e);
+		}
+	}
+
+	public void updateRow() {
+		try {
+			results.updateRow();
+		} catch (SQLException e) {
+			throw DataException.wrap(e);
+		}
+	}
+
+	public void close() {
+		if (count != null) count.close();
+		try {
+			results.close();
+		} catch (SQLException e) {
+			throw DataException.wrap(e);
+		}
+	}
+
+	@Override public String toString() {
+		StringBuilder str = new StringBuilder();
+		String sep = "";
+		for (int i = 0; i < names.length; i++) {
+			str.append(sep).append(names[i]).append(": ").append(getObject(first + i));
+			sep = ", ";
+		}
+		return str.toString();
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.results;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.copalis.sql.Cursor;
+import org.copalis.sql.DataException;
+import org.copalis.sql.Results;
+
+/**
+ * Merges the rows of several queries that are each ordered by the same key into one ordered set of rows.
+ * <p>
+ * The rows are merged as they are read, by comparing the current row of each source,
+ * so only one row of each source is held at a time.
+ * Rows with equal keys are read in the order of their sources,
+ * and if there is no key the sources are read one after another
+ *
+ * @author gilesjb
+ */
+public final class MergedResults {
+	
+	private MergedResults() {}
+	
+	/**
+	 * A source of rows and its current key
+	 */
+	private static class Head<S> {
+		final S source;
+		final int index;
+		Object row;
+		Comparable<Object> key;
+		
+		Head(S source, int index) {
+			this.source = source;
+			this.index = index;
+		}
+	}
+	
+	private static final Comparator<Head<?>> ORDER = new Comparator<Head<?>>() {
+		public int compare(Head<?> a, Head<?> b) {
+			int order = a.key == b.key? 0 : a.key == null? -1 : b.key == null? 1 : a.key.compareTo(b.key);
+			return order != 0? order : a.index - b.index;
+		}
+	};
+	
+	@SuppressWarnings("unchecked")
+	private static Comparable<Object> comparable(Object key) {
+		if (key == null || key instanceof Comparable) return (Comparable<Object>) key;
+		throw new ClassCastException("Merge key is not comparable: " + key.getClass().getName());
+	}
+	
+	/**
+	 * Merges result sets
+	 * @param sources result sets before their first rows, each ordered by the key
+	 * @param key the label of the key column, or an empty string to read the sources one after another
+	 * @return a forward-only {@link ResultSet} that reads the rows of all the sources in key order
+	 * and closes them when it is closed
+	 */
+	public static ResultSet open(final List<? extends ResultSet> sources, final String key) {
+		if (sources.isEmpty()) throw new IllegalArgumentException("No result sets to merge");
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+				new Class<?>[] {ResultSet.class}, new InvocationHandler() {
+			private final PriorityQueue<Head<ResultSet>> heads = new PriorityQueue<Head<ResultSet>>(sources.size(), ORDER);
+			private Head<ResultSet> current = null;
+			private boolean started = false;
+			
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("equals")) return proxy == args[0];
+				if (name.equals("hashCode")) return System.identityHashCode(proxy);
+				if (name.equals("toString")) return "MergedResultSet by " + key + ": " + sources;
+				if (name.equals("next")) return next();
+				if (name.equals("close")) return close();
+				if (name.equals("isClosed")) return sources.get(0).isClosed();
+				if (name.equals("getType")) return ResultSet.TYPE_FORWARD_ONLY;
+				if (name.equals("getRow")) return 0;
+				if (name.equals("isWrapperFor")) return ((Class<?>) args[0]).isInstance(proxy);
+				if (name.equals("unwrap") && ((Class<?>) args[0]).isInstance(proxy)) return proxy;
+				try {
+					return method.invoke(current != null? current.source : sources.get(0), args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+			
+			private boolean next() throws SQLException {
+				if (!started) {
+					started = true;
+					for (int i = 0; i < sources.size(); i++) {
+						advance(new Head<ResultSet>(sources.get(i), i));
+					}
+				} else if (current != null) {
+					advance(current);
+				}
+				current = heads.poll();
+				return current != null;
+			}
+			
+			private void advance(Head<ResultSet> head) throws SQLException {
+				if (head.source.next()) {
+					head.key = key.length() == 0? null : comparable(head.source.getObject(key));
+					heads.add(head);
+				}
+			}
+			
+			private Object close() throws SQLException {
+				SQLException failure = null;
+				for (ResultSet source : sources) {
+					try {
+						source.close();
+					} catch (SQLException e) {
+						if (failure != null) failure.setNextException(e); else failure = e;
+					}
+				}
+				heads.clear();
+				current = null;
+				if (failure != null) throw failure;
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Merges {@link Results} objects of the same type
+	 * @param sources {@link Results} objects before their first rows, each ordered by the key
+	 * @param key the label of the key column, or an empty string to read the sources one after another
+	 * @return a {@link Results} object of the same type that reads the rows of all the sources in key order
+	 */
+	public static <R extends Results> R results(List<R> sources, String key) {
+		List<ResultSet> results = new ArrayList<ResultSet>(sources.size());
+		for (R source : sources) {
+			results.add(source.results());
+		}
+		return RowBuffer.wrap(sources.get(0), open(results, key));
+	}
+	
+	/**
+	 * Merges iterators over the rows of queries.
+	 * The key of a {@link Results} row is read from its result set; any other row is its own key
+	 * @param sources iterators, each ordered by the key
+	 * @param key the label of the key column, or an empty string to read the sources one after another
+	 * @return a {@link Cursor} that returns the rows of all the sources in key order,
+	 * and closes any sources that are {@link Closeable} when it is closed
+	 */
+	public static <E> Cursor<E> cursor(final List<? extends Iterator<E>> sources, final String key) {
+		return new Cursor<E>() {
+			private final PriorityQueue<Head<Iterator<E>>> heads = new PriorityQueue<Head<Iterator<E>>>(Math.max(1, sources.size()), ORDER);
+			private Head<Iterator<E>> current = null;
+			private boolean started = false, closed = false;
+			
+			/**
+			 * Advances the source of the row last returned only when another row is needed,
+			 * since a {@link Results} row is repositioned by advancing its source
+			 */
+			public boolean hasNext() {
+				if (closed) return false;
+				if (!started) {
+					started = true;
+					for (int i = 0; i < sources.size(); i++) {
+						advance(new Head<Iterator<E>>(sources.get(i), i));
+					}
+				} else if (current != null) {
+					advance(current);
+					current = null;
+				}
+				if (heads.isEmpty()) {
+					close();
+					return false;
+				}
+				return true;
+			}
+			
+			private void advance(Head<Iterator<E>> head) {
+				if (head.source.hasNext()) {
+					Object row = head.source.next();
+					head.row = row;
+					try {
+						head.key = key.length() == 0? null : comparable(
+								row instanceof Results? ((Results) row).results().getObject(key) : row);
+					} catch (SQLException e) {
+						throw DataException.wrap(e);
+					}
+					heads.add(head);
+				}
+			}
+			
+			@SuppressWarnings("unchecked")
+			public E next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				current = heads.poll();
+				return (E) current.row;
+			}
+			
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+			
+			public Iterator<E> iterator() {
+				return this;
+			}
+			
+			public void close() {
+				if (closed) return;
+				closed = true;
+				heads.clear();
+				current = null;
+				for (Iterator<E> source : sources) {
+					if (source instanceof Closeable) {
+						try {
+							((Closeable) source).close();
+						} catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}
+				}
+			}
+		};
+	}
+}
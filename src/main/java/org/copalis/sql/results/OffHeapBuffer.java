@@ -0,0 +1,412 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.results;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.copalis.sql.DataException;
+import org.copalis.sql.Results;
+import org.copalis.sql.common.Finalizer;
+
+/**
+ * A detached copy of the rows of a {@link ResultSet} that is stored outside the Java heap,
+ * so that very large results do not increase garbage collection work.
+ * <p>
+ * Each row has a fixed binary layout derived from the result set metadata:
+ * a bitmap of null columns followed by a fixed-size slot for each column.
+ * Strings, byte arrays and decimals are stored in a separate region,
+ * and their slots hold the address and length of the value.
+ * <p>
+ * Rows are written to direct {@link ByteBuffer} chunks until a spill threshold is reached,
+ * after which chunks are mapped from a temporary file. The file is deleted when the buffer is closed;
+ * direct chunks are released when the buffer is garbage collected.
+ * A buffer can be read by several threads at once
+ *
+ * @author gilesjb
+ */
+public class OffHeapBuffer extends RowBuffer {
+
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private enum Slot {
+		INT(Integer.class, 4) {
+			void write(ResultSet results, int index, ByteBuffer row, int pos, Region values) throws SQLException {
+				row.putInt(pos, results.getInt(index));
+			}
+			Object read(ByteBuffer row, int pos, Region values) {
+				return row.getInt(pos);
+			}
+		},
+		LONG(Long.class, 8) {
+			void write(ResultSet results, int index, ByteBuffer row, int pos, Region values) throws SQLException {
+				row.putLong(pos, results.getLong(index));
+			}
+			Object read(ByteBuffer row, int pos, Region values) {
+				return row.getLong(pos);
+			}
+		},
+		DOUBLE(Double.class, 8) {
+			void write(ResultSet results, int index, ByteBuffer row, int pos, Region values) throws SQLException {
+				row.putDouble(pos, results.getDouble(index));
+			}
+			Object read(ByteBuffer row, int pos, Region values) {
+				return row.getDouble(pos);
+			}
+		},
+		FLOAT(Float.class, 4) {
+			void write(ResultSet results, int index, ByteBuffer row, int pos, Region values) throws SQLException {
+				row.putFloat(pos, results.getFloat(index));
+			}
+			Object read(ByteBuffer row, int pos, Region values) {
+				return row.getFloat(pos);
+			}
+		},
+		SHORT(Short.class, 2) {
+			void write(ResultSet results, int index, ByteBuffer row, int pos, Region values) throws SQLException {
+				row.putShort(pos, results.getShort(index));
+			}
+			Object read(ByteBuffer row, int pos, Region values) {
+				return row.getShort(pos);
+			}
+		},
+		BYTE(Byte.class, 1) {
+			void write(ResultSet results, int index, ByteBuffer row, int pos, Region values) throws SQLException {
+				row.put(pos, results.getByte(index));
+			}
+			Object read(ByteBuffer row, int pos, Region values) {
+				return row.get(pos);
+			}
+		},
+		BOOLEAN(Boolean.class, 1) {
+			void write(ResultSet results, int index, ByteBuffer row, int pos, Region values) throws SQLException {
+				row.put(pos, (byte) (results.getBoolean(index)? 1 : 0));
+			}
+			Object read(ByteBuffer row, int pos, Region values) {
+				return row.get(pos) != 0;
+			}
+		},
+		DATE(java.sql.Date.class, 8) {
+			void write(ResultSet results, int index, ByteBuffer row, int pos, Region values) throws SQLException {
+				java.sql.Date value = results.getDate(index);
+				if (value != null) row.putLong(pos, value.getTime());
+			}
+			Object read(ByteBuffer row, int pos, Region values) {
+				return new java.sql.Date(row.getLong(pos));
+			}
+		},
+		TIME(Time.class, 8) {
+			void write(ResultSet results, int index, ByteBuffer row, int pos, Region values) throws SQLException {
+				Time value = results.getTime(index);
+				if (value != null) row.putLong(pos, value.getTime());
+			}
+			Object read(ByteBuffer row, int pos, Region values) {
+				return new Time(row.getLong(pos));
+			}
+		},
+		TIMESTAMP(Timestamp.class, 12) {
+			void write(ResultSet results, int index, ByteBuffer row, int pos, Region values) throws SQLException {
+				Timestamp value = results.getTimestamp(index);
+				if (value != null) {
+					row.putLong(pos, value.getTime());
+					row.putInt(pos + 8, value.getNanos());
+				}
+			}
+			Object read(ByteBuffer row, int pos, Region values) {
+				Timestamp value = new Timestamp(row.getLong(pos));
+				value.setNanos(row.getInt(pos + 8));
+				return value;
+			}
+		},
+		STRING(String.class, 12) {
+			void write(ResultSet results, int index, ByteBuffer row, int pos, Region values) throws SQLException {
+				String value = results.getString(index);
+				if (value != null) values.put(value.getBytes(UTF8), row, pos);
+			}
+			Object read(ByteBuffer row, int pos, Region values) {
+				return new String(values.get(row, pos), UTF8);
+			}
+		},
+		BYTES(byte[].class, 12) {
+			void write(ResultSet results, int index, ByteBuffer row, int pos, Region values) throws SQLException {
+				byte[] value = results.getBytes(index);
+				if (value != null) values.put(value, row, pos);
+			}
+			Object read(ByteBuffer row, int pos, Region values) {
+				return values.get(row, pos);
+			}
+		},
+		DECIMAL(BigDecimal.class, 12) {
+			void write(ResultSet results, int index, ByteBuffer row, int pos, Region values) throws SQLException {
+				BigDecimal value = results.getBigDecimal(index);
+				if (value != null) {
+					byte[] unscaled = value.unscaledValue().toByteArray();
+					byte[] bytes = ByteBuffer.allocate(4 + unscaled.length).putInt(value.scale()).put(unscaled).array();
+					values.put(bytes, row, pos);
+				}
+			}
+			Object read(ByteBuffer row, int pos, Region values) {
+				byte[] bytes = values.get(row, pos);
+				int scale = ByteBuffer.wrap(bytes).getInt();
+				return new BigDecimal(new BigInteger(Arrays.copyOfRange(bytes, 4, bytes.length)), scale);
+			}
+		};
+
+		final Class<?> type;
+		final int size;
+
+		private Slot(Class<?> type, int size) {
+			this.type = type;
+			this.size = size;
+		}
+
+		abstract void write(ResultSet results, int index, ByteBuffer row, int pos, Region values) throws SQLException;
+		abstract Object read(ByteBuffer row, int pos, Region values);
+
+		static Slot forClassName(String className) throws SQLException {
+			for (Slot slot : values()) {
+				if (slot.type.getName().equals(className)) return slot;
+			}
+			throw new SQLFeatureNotSupportedException("Column type cannot be buffered off heap: " + className);
+		}
+	}
+
+	/**
+	 * Allocates chunks of memory, first directly and then from a mapped file
+	 */
+	private static class Chunks {
+		private final long threshold;
+		private long direct = 0, mapped = 0;
+		private File file = null;
+		private RandomAccessFile channel = null;
+
+		Chunks(long threshold) {
+			this.threshold = threshold;
+		}
+
+		ByteBuffer allocate(int size) throws SQLException {
+			if (direct + size <= threshold) {
+				direct += size;
+				return ByteBuffer.allocateDirect(size);
+			}
+			try {
+				if (channel == null) {
+					file = File.createTempFile("copalis", ".rows");
+					file.deleteOnExit();
+					channel = new RandomAccessFile(file, "rw");
+				}
+				ByteBuffer chunk = channel.getChannel().map(FileChannel.MapMode.READ_WRITE, mapped, size);
+				mapped += size;
+				return chunk;
+			} catch (IOException e) {
+				throw new SQLException("Could not spill rows to a file", e);
+			}
+		}
+
+		void close() {
+			if (channel == null) return;
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// the file is deleted on exit
+			}
+			file.delete();
+			channel = null;
+		}
+	}
+
+	/**
+	 * The variable-length values of the buffer.
+	 * A value is stored in a single chunk, and addressed by chunk index and offset
+	 */
+	private static class Region {
+		private final Chunks chunks;
+		private final int chunkSize;
+		private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+		private ByteBuffer tail = null;
+
+		Region(Chunks chunks, int chunkSize) {
+			this.chunks = chunks;
+			this.chunkSize = chunkSize;
+		}
+
+		void put(byte[] value, ByteBuffer row, int pos) throws SQLException {
+			if (tail == null || tail.remaining() < value.length) {
+				tail = chunks.allocate(Math.max(chunkSize, value.length));
+				buffers.add(tail);
+			}
+			row.putInt(pos, buffers.size() - 1);
+			row.putInt(pos + 4, tail.position());
+			row.putInt(pos + 8, value.length);
+			tail.put(value);
+		}
+
+		byte[] get(ByteBuffer row, int pos) {
+			ByteBuffer chunk = buffers.get(row.getInt(pos)).duplicate();
+			chunk.position(row.getInt(pos + 4));
+			byte[] value = new byte[row.getInt(pos + 8)];
+			chunk.get(value);
+			return value;
+		}
+	}
+
+	private final Slot[] slots;
+	private final int[] offsets;
+	private final int rowSize, rowsPerChunk;
+	private final Chunks chunks;
+	private final List<ByteBuffer> rowChunks = new ArrayList<ByteBuffer>();
+	private final Region values;
+	private int rows = 0;
+
+	private OffHeapBuffer(ResultSet results, long spillThreshold, int chunkSize) throws SQLException {
+		super(results.getMetaData());
+		ResultSetMetaData meta = results.getMetaData();
+		this.slots = new Slot[meta.getColumnCount()];
+		this.offsets = new int[slots.length];
+		int size = (slots.length + 7) / 8;
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = Slot.forClassName(meta.getColumnClassName(i + 1));
+			offsets[i] = size;
+			size += slots[i].size;
+		}
+		this.rowSize = size;
+		this.rowsPerChunk = Math.max(1, chunkSize / rowSize);
+		this.chunks = new Chunks(spillThreshold);
+		this.values = new Region(chunks, chunkSize);
+
+		try {
+			while (results.next()) {
+				write(results);
+			}
+		} catch (SQLException e) {
+			chunks.close();
+			throw e;
+		}
+	}
+
+	private void write(ResultSet results) throws SQLException {
+		int chunk = rows / rowsPerChunk;
+		if (chunk == rowChunks.size()) rowChunks.add(chunks.allocate(rowsPerChunk * rowSize));
+		ByteBuffer buffer = rowChunks.get(chunk);
+		int base = (rows % rowsPerChunk) * rowSize;
+
+		for (int i = 0; i < slots.length; i++) {
+			slots[i].write(results, i + 1, buffer, base + offsets[i], values);
+			if (results.wasNull()) {
+				int nulls = base + i / 8;
+				buffer.put(nulls, (byte) (buffer.get(nulls) | 1 << i % 8));
+			}
+		}
+		rows++;
+	}
+
+	/**
+	 * Reads the remaining rows of a result set, which is left open, into direct memory
+	 * @param results a {@link ResultSet}
+	 * @return a new {@link OffHeapBuffer} containing the rows
+	 * @throws SQLException if a column type is not supported, or the rows cannot be read
+	 */
+	public static OffHeapBuffer fetch(ResultSet results) throws SQLException {
+		return fetch(results, Long.MAX_VALUE, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Reads the remaining rows of a result set, which is left open
+	 * @param results a {@link ResultSet}
+	 * @param spillThreshold the number of bytes of direct memory to use before mapping a temporary file
+	 * @param chunkSize the size of each allocated chunk of memory
+	 * @return a new {@link OffHeapBuffer} containing the rows
+	 * @throws SQLException if a column type is not supported, or the rows cannot be read
+	 */
+	public static OffHeapBuffer fetch(ResultSet results, long spillThreshold, int chunkSize) throws SQLException {
+		return new OffHeapBuffer(results, spillThreshold, chunkSize);
+	}
+
+	/**
+	 * Reads the remaining rows of a {@link Results} object into a buffer and closes its result set.
+	 * Closing the returned object closes the buffer
+	 * @param results a {@link Results} object
+	 * @param spillThreshold the number of bytes of direct memory to use before mapping a temporary file
+	 * @return a {@link Results} object of the same type that reads the buffered rows
+	 * @throws DataException
+	 */
+	public static <R extends Results> R detach(R results, long spillThreshold) throws DataException {
+		ResultSet source = results.results();
+		Finalizer handler = new Finalizer();
+		try {
+			return wrap(results, fetch(source, spillThreshold, DEFAULT_CHUNK_SIZE).resultSet(true));
+		} catch (Exception e) {
+			throw handler.wrap(e);
+		} finally {
+			handler.close(source);
+		}
+	}
+
+	public int rows() {
+		return rows;
+	}
+
+	public Object get(int row, int column) {
+		ByteBuffer buffer = rowChunks.get(row / rowsPerChunk);
+		int base = (row % rowsPerChunk) * rowSize;
+		int i = column - 1;
+		if ((buffer.get(base + i / 8) & 1 << i % 8) != 0) return null;
+		return slots[i].read(buffer, base + offsets[i], values);
+	}
+
+	/**
+	 * @return the number of bytes of direct memory allocated
+	 */
+	public long directBytes() {
+		return chunks.direct;
+	}
+
+	/**
+	 * @return the number of bytes mapped from a temporary file
+	 */
+	public long mappedBytes() {
+		return chunks.mapped;
+	}
+
+	/**
+	 * Deletes the temporary file, if any. The buffer cannot be read after it is closed
+	 */
+	@Override public void close() {
+		chunks.close();
+	}
+
+	@Override public String toString() {
+		return "OffHeapBuffer: " + rows + " rows of " + rowSize + " bytes, "
+				+ chunks.direct + " direct bytes, " + chunks.mapped + " mapped bytes";
+	}
+}
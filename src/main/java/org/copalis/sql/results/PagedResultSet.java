@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.results;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A forward-only {@link ResultSet} that reads the pages of a keyset-paginated query as one continuous set of rows.
+ * <p>
+ * Each page is the result of a query ordered by a unique key column and limited to a fixed number of rows;
+ * when a full page is exhausted, the query is executed again for the rows whose key follows
+ * the last key read, so no server cursor is held for longer than one page
+ *
+ * @author gilesjb
+ */
+public final class PagedResultSet {
+
+	/**
+	 * Executes the query for a page
+	 */
+	public interface Pages {
+
+		/**
+		 * @param after the key of the last row read, or null for the first page
+		 * @return the rows that follow the key, in key order
+		 * @throws SQLException
+		 */
+		ResultSet fetch(Object after) throws SQLException;
+	}
+
+	private PagedResultSet() {}
+
+	/**
+	 * Executes the first page of a query
+	 * @param pages executes the query for each page
+	 * @param key the label of the key column
+	 * @param size the number of rows in a full page
+	 * @return a {@link ResultSet} that reads all the pages
+	 * @throws SQLException
+	 */
+	public static ResultSet open(final Pages pages, final String key, final int size) throws SQLException {
+		final ResultSet first = pages.fetch(null);
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+				new Class<?>[] {ResultSet.class}, new InvocationHandler() {
+			private ResultSet page = first;
+			private int rows = 0;
+			private Object last = null;
+			private boolean exhausted = false;
+
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("equals")) return proxy == args[0];
+				if (name.equals("hashCode")) return System.identityHashCode(proxy);
+				if (name.equals("toString")) return "PagedResultSet by " + key + ": " + page;
+				if (name.equals("next")) return next();
+				if (name.equals("getType")) return ResultSet.TYPE_FORWARD_ONLY;
+				if (name.equals("getRow")) return 0;
+				if (name.equals("isWrapperFor")) return ((Class<?>) args[0]).isInstance(proxy);
+				if (name.equals("unwrap") && ((Class<?>) args[0]).isInstance(proxy)) return proxy;
+				try {
+					return method.invoke(page, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+
+			private boolean next() throws SQLException {
+				while (!exhausted) {
+					if (page.next()) {
+						rows++;
+						last = page.getObject(key);
+						return true;
+					}
+					if (rows < size || last == null) {
+						exhausted = true;
+					} else {
+						page.close();
+						page = pages.fetch(last);
+						rows = 0;
+					}
+				}
+				return false;
+			}
+		});
+	}
+}
@@ -51,6 +51,7 @@ public class PropertiesResultSetWrapper<T extends Results> implements ResultSetW
 	private final Map<Method, ResultsMethodHandler> handlers = new HashMap<Method, ResultsMethodHandler>();
 	private final Map<Method, ResultsMethodHandler.Factory> factories = new HashMap<Method, ResultsMethodHandler.Factory>();
 	private final List<Validator> validators = new LinkedList<Validator>();
+	private final ResultsProxy.Dispatch dispatch;
 	
 	public static <C extends Results> PropertiesResultSetWrapper<C> forType(Class<C> type) {
 		return new PropertiesResultSetWrapper<C>(type, 1);
@@ -99,6 +100,7 @@ public class PropertiesResultSetWrapper<T extends Results> implements ResultSetW
 			idx = child.finalIdx;
 		}
 		this.finalIdx = idx;
+		this.dispatch = new ResultsProxy.Dispatch(type, handlers, factories);
 	}
 	
 	private void addHandlers(final ResultsProperty property, final int index) {
@@ -166,6 +168,6 @@ public class PropertiesResultSetWrapper<T extends Results> implements ResultSetW
 	 * @return a dynamic proxy implementing the interface
 	 */
 	public T wrap(final ResultSet results) {
-		return ResultsProxy.proxy(type, results, handlers, factories);
+		return type.cast(dispatch.proxy(results));
 	}
 }
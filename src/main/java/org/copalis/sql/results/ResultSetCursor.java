@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.results;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.copalis.sql.Cursor;
+import org.copalis.sql.DataException;
+import org.copalis.sql.Results;
+
+/**
+ * A {@link Cursor} that advances a {@link ResultSet} one row at a time
+ *
+ * @param <R> the row type
+ * @author gilesjb
+ */
+public abstract class ResultSetCursor<R> implements Cursor<R> {
+	private final ResultSet results;
+	private boolean advanced = false, more = false, closed = false;
+	RowCount count = null;
+	
+	protected ResultSetCursor(ResultSet results) {
+		this.results = results;
+	}
+	
+	/**
+	 * Creates a cursor over the rows of a {@link Results} object
+	 * @param rows a {@link Results} object before its first row
+	 * @return a cursor that returns rows at each position
+	 */
+	public static <R extends Results> Cursor<R> rows(final R rows) {
+		return new ResultSetCursor<R>(rows.results()) {
+			protected R current() {
+				return rows;
+			}
+		};
+	}
+	
+	/**
+	 * Creates a cursor over the values of the first field of a result set
+	 * @param results a {@link ResultSet}
+	 * @param type the declared type of the values
+	 * @return a cursor that reads the field of each row
+	 */
+	public static Cursor<Object> values(final ResultSet results, Class<?> type) {
+		final ColumnReader reader = ColumnReader.forType(type);
+		return new ResultSetCursor<Object>(results) {
+			protected Object current() throws SQLException {
+				return reader.read(results, 1);
+			}
+		};
+	}
+	
+	/**
+	 * Reads the current row
+	 * @return the row value
+	 * @throws SQLException
+	 */
+	protected abstract R current() throws SQLException;
+	
+	public boolean hasNext() {
+		if (!advanced && !closed) {
+			try {
+				more = results.next();
+			} catch (SQLException e) {
+				close();
+				throw DataException.wrap(e);
+			}
+			advanced = true;
+			if (count != null && more) count.next(true);
+			if (!more) close();
+		}
+		return more && !closed;
+	}
+	
+	public R next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		advanced = false;
+		try {
+			return current();
+		} catch (SQLException e) {
+			throw DataException.wrap(e);
+		}
+	}
+	
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	public Iterator<R> iterator() {
+		return this;
+	}
+	
+	public void close() {
+		if (closed) return;
+		closed = true;
+		if (count != null) count.close();
+		try {
+			results.close();
+		} catch (SQLException e) {
+			throw DataException.wrap(e);
+		}
+	}
+}
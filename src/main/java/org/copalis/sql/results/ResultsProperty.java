@@ -137,15 +137,18 @@ public class ResultsProperty implements Comparable<ResultsProperty> {
 	}
 	
     /**
-     * Adds {@link ResultsMethodHander}s for this property to a Map
+     * Adds {@link ResultsMethodHander}s for this property to a Map.
+     * The getter handler reads the field with the {@link ResultSet} method
+     * that matches the getter's declared return type
      * @param handlers map from methods to handlers
      * @param index a parameter index
      */
     public void createMethodHandlers(Map<Method, ResultsMethodHandler> handlers, final int index) {
         if (getter != null) {
+            final ColumnReader reader = ColumnReader.forType(getter.getReturnType());
             handlers.put(getter, new ResultsMethodHandler() {
                 public Object invoke(ResultSet results, Object proxy, Object[] args) throws SQLException {
-                    return results.getObject(index);
+                    return reader.read(results, index);
                 }
                 
                 public String toString(ResultSet results) throws SQLException {
@@ -15,6 +15,7 @@
  */
 package org.copalis.sql.results;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
@@ -22,9 +23,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Map;
-import java.util.Set;
 
 import org.copalis.sql.DataException;
 import org.copalis.sql.Results;
@@ -34,32 +34,129 @@ import org.copalis.sql.results.ResultsMethodHandler.Factory;
 
 /**
  * A general class for implementing a Results proxy.
+ * <p>
+ * The handlers of a {@link Results} type are resolved once into a {@link Dispatch} table,
+ * which is shared by every proxy of the type; a proxy only allocates the handlers
+ * of its qualifier methods, when they are first called
  *
  * @author gilesjb
  */
 public class ResultsProxy implements InvocationHandler, Results, Results.Updatable {
 
+	/**
+	 * The method handlers of a {@link Results} type, indexed by slot
+	 */
+	public static final class Dispatch {
+		/**
+		 * The handler of the instance that is created only to get the proxy class
+		 */
+		private static final InvocationHandler UNUSED = new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				throw new UnsupportedOperationException();
+			}
+		};
+		
+		private final Constructor<?> constructor;
+		private final Map<Method, Integer> slots = new HashMap<Method, Integer>();
+		private final ResultsMethodHandler[] handlers;
+		private final ResultsMethodHandler.Factory[] factories;
+		private volatile Map<Method, Integer> resolved = new IdentityHashMap<Method, Integer>();
+		
+		/**
+		 * @param type a {@link Results} interface
+		 * @param handlers the handlers of the interface's property methods
+		 * @param factories the factories of the handlers of the interface's qualifier methods
+		 */
+		public Dispatch(Class<?> type,
+				Map<Method, ResultsMethodHandler> handlers, Map<Method, ResultsMethodHandler.Factory> factories) {
+			try {
+				this.constructor = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, UNUSED)
+						.getClass().getConstructor(InvocationHandler.class);
+				constructor.setAccessible(true);
+			} catch (NoSuchMethodException e) {
+				throw new RuntimeException(e);
+			}
+			this.handlers = new ResultsMethodHandler[handlers.size() + factories.size()];
+			this.factories = new ResultsMethodHandler.Factory[this.handlers.length];
+			int slot = 0;
+			for (Map.Entry<Method, ResultsMethodHandler> entry : handlers.entrySet()) {
+				this.handlers[slot] = entry.getValue();
+				slots.put(entry.getKey(), slot++);
+			}
+			for (Map.Entry<Method, ResultsMethodHandler.Factory> entry : factories.entrySet()) {
+				this.factories[slot] = entry.getValue();
+				slots.put(entry.getKey(), slot++);
+			}
+		}
+		
+		/**
+		 * Gets the slot of a method, remembering the {@link Method} object
+		 * so that later calls are resolved by identity
+		 */
+		int slot(Method method) {
+			Integer slot = resolved.get(method);
+			if (slot == null) {
+				slot = slots.get(method);
+				if (slot == null) return -1;
+				synchronized (this) {
+					Map<Method, Integer> copy = new IdentityHashMap<Method, Integer>(resolved);
+					copy.put(method, slot);
+					resolved = copy;
+				}
+			}
+			return slot;
+		}
+		
+		Object create(ResultsProxy handler) {
+			try {
+				return constructor.newInstance(handler);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		/**
+		 * Creates a proxy that implements this table's type by reading a result set
+		 * @param results a {@link ResultSet}
+		 * @return a new proxy
+		 */
+		public Object proxy(ResultSet results) {
+			return create(new ResultsProxy(results, this));
+		}
+	}
+
+	/**
+	 * Creates a proxy with a new dispatch table;
+	 * a wrapper that creates many proxies of a type should create its {@link Dispatch} once
+	 */
 	public static <T extends Results> T proxy(Class<T> type, ResultSet results, Map<Method, ResultsMethodHandler> handlers) {
-		return type.cast(Proxy.newProxyInstance(
-				type.getClassLoader(), new Class<?>[] {type}, new ResultsProxy(
-				        results, handlers, Collections.<Method, Factory>emptyMap())));
+		return proxy(type, results, handlers, Collections.<Method, Factory>emptyMap());
 	}
 	
 	public static <T extends Results> T proxy(
 			Class<T> type, ResultSet results, Map<Method, ResultsMethodHandler> handlers, Map<Method, ResultsMethodHandler.Factory> factories) {
-		return type.cast(Proxy.newProxyInstance(
-				type.getClassLoader(), new Class<?>[] {type}, new ResultsProxy(results, handlers, factories)));
+		return type.cast(new Dispatch(type, handlers, factories).proxy(results));
 	}
 	
 	private final ResultSet results;
-	private final Map<Method, ResultsMethodHandler> handlers;
-	private final Map<Method, ResultsMethodHandler.Factory> factories;
+	private final Dispatch dispatch;
+	private ResultsMethodHandler[] qualifiers = null;
+	RowCount count = null;
 	
-	private ResultsProxy(
-			ResultSet results, Map<Method, ResultsMethodHandler> handlers, Map<Method, ResultsMethodHandler.Factory> factories) {
+	private ResultsProxy(ResultSet results, Dispatch dispatch) {
 		this.results = results;
-		this.handlers = new HashMap<Method, ResultsMethodHandler>(handlers);
-		this.factories = factories;
+		this.dispatch = dispatch;
+	}
+	
+	/**
+	 * Creates a proxy with the same type and method handlers as another that wraps a different result set
+	 * @param proxy a proxy whose invocation handler is this object
+	 * @param results a {@link ResultSet} with the same columns as the one this object wraps
+	 * @return a new proxy
+	 */
+	@SuppressWarnings("unchecked")
+	<T extends Results> T proxy(T proxy, ResultSet results) {
+		return (T) dispatch.create(new ResultsProxy(results, dispatch));
 	}
 
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
@@ -67,26 +164,29 @@ public class ResultsProxy implements InvocationHandler, Results, Results.Updatab
 		    return method.invoke(this, args);
 		}
 		
+		int slot = dispatch.slot(method);
+		if (slot < 0) throw new NoSuchMethodException(Name.of(method));
 		try {
-			return handler(method).invoke(results, proxy, args);
+			return handler(slot).invoke(results, proxy, args);
 		} catch (SQLException e) {
 			throw DataException.wrap("In method: " + Name.of(method), e);
 		}
 	}
 	
-	private ResultsMethodHandler handler(Method method) throws NoSuchMethodException {
-		if (handlers.containsKey(method)) return handlers.get(method);
-		if (factories.containsKey(method)) {
-			ResultsMethodHandler handler = factories.get(method).create(results);
-			handlers.put(method, handler);
-			return handler;
-		}
-		throw new NoSuchMethodException(Name.of(method));
+	private ResultsMethodHandler handler(int slot) {
+		ResultsMethodHandler handler = dispatch.handlers[slot];
+		if (handler != null) return handler;
+		if (qualifiers == null) qualifiers = new ResultsMethodHandler[dispatch.handlers.length];
+		if (qualifiers[slot] == null) qualifiers[slot] = dispatch.factories[slot].create(results);
+		return qualifiers[slot];
 	}
 	
 	public boolean next() {
 		try {
-			return results.next();
+			if (count == null) return results.next();
+			boolean more = results.next();
+			count.next(more);
+			return more;
 		} catch (SQLException e) {
 			throw DataException.wrap(e);
 		}
@@ -101,6 +201,7 @@ public class ResultsProxy implements InvocationHandler, Results, Results.Updatab
 	}
 
 	public void close() {
+		if (count != null) count.close();
 		try {
 			results.close();
 		} catch (SQLException e) {
@@ -116,17 +217,12 @@ public class ResultsProxy implements InvocationHandler, Results, Results.Updatab
 		StringBuilder str = new StringBuilder();
 		String sep = "";
 		
-		Set<Method> methods = new HashSet<Method>(handlers.keySet());
-		methods.addAll(factories.keySet());
-
-		for (Method method : methods) {
+		for (int slot = 0; slot < dispatch.handlers.length; slot++) {
 			String text;
 			try {
-				text = handler(method).toString(results);
+				text = handler(slot).toString(results);
 			} catch (SQLException e) {
 				throw DataException.wrap(e);
-			} catch (NoSuchMethodException e) {
-				throw new RuntimeException(e);
 			}
 			if (text != null) {
 				str.append(sep).append(text);
@@ -137,4 +233,3 @@ public class ResultsProxy implements InvocationHandler, Results, Results.Updatab
 		return str.toString();
 	}
 }
-
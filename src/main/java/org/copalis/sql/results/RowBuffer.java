@@ -0,0 +1,288 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.results;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.copalis.sql.Results;
+
+/**
+ * A base class for detached copies of the rows of a {@link ResultSet}.
+ * <p>
+ * A buffer is read through scrollable, read-only {@link ResultSet}s created by {@link #resultSet()},
+ * which convert buffered values with the same rules for every subclass,
+ * so {@link Results} objects can be detached from their connection and read after the session is closed
+ *
+ * @author gilesjb
+ * @see ColumnBuffer
+ * @see OffHeapBuffer
+ */
+public abstract class RowBuffer {
+
+	private static final Map<Class<?>, Object> ZERO = new HashMap<Class<?>, Object>();
+	static {
+		ZERO.put(int.class, 0);
+		ZERO.put(long.class, 0L);
+		ZERO.put(double.class, 0.0);
+		ZERO.put(float.class, 0.0f);
+		ZERO.put(short.class, (short) 0);
+		ZERO.put(byte.class, (byte) 0);
+		ZERO.put(boolean.class, false);
+	}
+
+	private final int columns;
+	private final Map<String, Integer> labels = new HashMap<String, Integer>();
+	private final ResultSetMetaData meta;
+
+	/**
+	 * @param source the metadata of the result set being buffered
+	 * @throws SQLException
+	 */
+	protected RowBuffer(ResultSetMetaData source) throws SQLException {
+		this.columns = source.getColumnCount();
+		for (int i = 1; i <= columns; i++) {
+			String label = source.getColumnLabel(i).toLowerCase();
+			if (!labels.containsKey(label)) labels.put(label, i);
+		}
+		this.meta = snapshot(source, columns);
+	}
+
+	/**
+	 * Creates a {@link Results} object of the same type as another that reads a buffered result set
+	 * @param results a {@link Results} object
+	 * @param buffered a result set with the same columns as the one that results wraps
+	 * @return a new {@link Results} object
+	 */
+	@SuppressWarnings("unchecked")
+	static <R extends Results> R wrap(R results, ResultSet buffered) {
+		if (results instanceof GeneratedResults) {
+			return (R) ((GeneratedResults) results).create(buffered);
+		}
+		if (Proxy.isProxyClass(results.getClass())
+				&& Proxy.getInvocationHandler(results) instanceof ResultsProxy) {
+			return ((ResultsProxy) Proxy.getInvocationHandler(results)).proxy(results, buffered);
+		}
+		throw new IllegalArgumentException("Cannot detach results of type: " + results.getClass().getName());
+	}
+
+	/**
+	 * @return the number of buffered rows
+	 */
+	public abstract int rows();
+
+	public int columns() {
+		return columns;
+	}
+
+	/**
+	 * Gets a buffered value
+	 * @param row a 0-based row index
+	 * @param column a 1-based column index
+	 * @return the value, which is null for SQL {@code NULL}
+	 */
+	public abstract Object get(int row, int column);
+
+	/**
+	 * Releases any resources held by the buffer
+	 */
+	public void close() {
+	}
+
+	/**
+	 * Creates a scrollable, read-only result set of the buffered rows,
+	 * positioned before the first row
+	 * @return a new {@link ResultSet}
+	 */
+	public ResultSet resultSet() {
+		return resultSet(false);
+	}
+
+	/**
+	 * @param owner true if closing the result set closes this buffer
+	 */
+	ResultSet resultSet(final boolean owner) {
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+				new Class<?>[] {ResultSet.class}, new InvocationHandler() {
+			private int row = -1;
+			private boolean wasNull = false;
+			private boolean closed = false;
+
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				Class<?>[] params = method.getParameterTypes();
+				if (name.equals("equals")) return proxy == args[0];
+				if (name.equals("hashCode")) return System.identityHashCode(proxy);
+				if (name.equals("toString")) return RowBuffer.this + " at row " + (row + 1);
+				if (name.equals("close")) {
+					if (!closed && owner) RowBuffer.this.close();
+					closed = true;
+					return null;
+				}
+				if (name.equals("isClosed")) return closed;
+				if (closed) throw new SQLException("ResultSet is closed");
+
+				if (name.startsWith("get") && params.length == 1
+						&& (params[0] == int.class || params[0] == String.class)) {
+					int column = args[0] instanceof String? findColumn((String) args[0]) : (Integer) args[0];
+					if (column < 1 || column > columns) throw new SQLException("No column: " + column);
+					if (row < 0 || row >= rows()) throw new SQLException("No current row");
+					Object value = get(row, column);
+					wasNull = value == null;
+					return convert(value, method.getReturnType());
+				}
+				if (params.length == 0) {
+					if (name.equals("next")) return move(row + 1);
+					if (name.equals("previous")) return move(row - 1);
+					if (name.equals("first")) return move(0);
+					if (name.equals("last")) return move(rows() - 1);
+					if (name.equals("beforeFirst") || name.equals("afterLast")) {
+						move(name.equals("beforeFirst")? -1 : rows());
+						return null;
+					}
+					if (name.equals("getRow")) return row >= 0 && row < rows()? row + 1 : 0;
+					if (name.equals("isBeforeFirst")) return rows() > 0 && row < 0;
+					if (name.equals("isAfterLast")) return rows() > 0 && row >= rows();
+					if (name.equals("isFirst")) return rows() > 0 && row == 0;
+					if (name.equals("isLast")) return rows() > 0 && row == rows() - 1;
+					if (name.equals("wasNull")) return wasNull;
+					if (name.equals("getMetaData")) return meta;
+					if (name.equals("getType")) return ResultSet.TYPE_SCROLL_INSENSITIVE;
+					if (name.equals("getConcurrency")) return ResultSet.CONCUR_READ_ONLY;
+					if (name.equals("getHoldability")) return ResultSet.HOLD_CURSORS_OVER_COMMIT;
+					if (name.equals("getFetchDirection")) return ResultSet.FETCH_FORWARD;
+					if (name.equals("getFetchSize")) return 0;
+					if (name.equals("getStatement") || name.equals("getWarnings")) return null;
+					if (name.equals("clearWarnings")) return null;
+				}
+				if (name.equals("absolute")) {
+					int position = (Integer) args[0];
+					return move(position > 0? position - 1 : position < 0? rows() + position : -1);
+				}
+				if (name.equals("relative")) return move(row + (Integer) args[0]);
+				if (name.equals("findColumn")) return findColumn((String) args[0]);
+				if (name.equals("setFetchSize") || name.equals("setFetchDirection")) return null;
+				if (name.equals("isWrapperFor")) return ((Class<?>) args[0]).isInstance(proxy);
+				if (name.equals("unwrap")) {
+					if (((Class<?>) args[0]).isInstance(proxy)) return proxy;
+					throw new SQLException("Not a wrapper for: " + args[0]);
+				}
+				throw new SQLFeatureNotSupportedException("Buffered results do not support: " + name);
+			}
+
+			private boolean move(int position) {
+				row = Math.max(-1, Math.min(position, rows()));
+				return row >= 0 && row < rows();
+			}
+		});
+	}
+
+	private int findColumn(String label) throws SQLException {
+		Integer column = labels.get(label.toLowerCase());
+		if (column == null) throw new SQLException("No column named: " + label);
+		return column;
+	}
+
+	private static Object convert(Object value, Class<?> type) throws SQLException {
+		if (type == Object.class) return value;
+		if (value == null) return ZERO.get(type);
+		if (type.isInstance(value)) return value;
+		if (type == String.class) return value.toString();
+
+		if (value instanceof Boolean) {
+			if (type == boolean.class) return value;
+			value = (Boolean) value? 1 : 0;
+		}
+		Number number = value instanceof Number? (Number) value : null;
+		if (number == null && value instanceof String) {
+			try {
+				number = new BigDecimal(((String) value).trim());
+			} catch (NumberFormatException e) {
+				throw new SQLException("Not a number: " + value);
+			}
+		}
+		if (number != null) {
+			if (type == int.class) return number.intValue();
+			if (type == long.class) return number.longValue();
+			if (type == double.class) return number.doubleValue();
+			if (type == float.class) return number.floatValue();
+			if (type == short.class) return number.shortValue();
+			if (type == byte.class) return number.byteValue();
+			if (type == boolean.class) return number.intValue() != 0;
+			if (type == BigDecimal.class) return new BigDecimal(number.toString());
+		}
+		throw new SQLException("Cannot convert " + value.getClass().getName() + " to " + type.getName());
+	}
+
+	/**
+	 * Copies the per-column values of result set metadata,
+	 * so that it can be read after its result set is closed
+	 */
+	private static ResultSetMetaData snapshot(ResultSetMetaData source, int count) throws SQLException {
+		final Map<String, Object[]> values = new HashMap<String, Object[]>();
+		for (Method method : ResultSetMetaData.class.getMethods()) {
+			if (!Arrays.equals(method.getParameterTypes(), new Class<?>[] {int.class})) continue;
+			Object[] columns = new Object[count];
+			try {
+				for (int i = 0; i < count; i++) {
+					columns[i] = method.invoke(source, i + 1);
+				}
+				values.put(method.getName(), columns);
+			} catch (InvocationTargetException e) {
+				// not supported by the driver
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		values.put("isReadOnly", filled(count, true));
+		values.put("isWritable", filled(count, false));
+		values.put("isDefinitelyWritable", filled(count, false));
+		final int columns = count;
+
+		return (ResultSetMetaData) Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(),
+				new Class<?>[] {ResultSetMetaData.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("equals")) return proxy == args[0];
+				if (name.equals("hashCode")) return System.identityHashCode(proxy);
+				if (name.equals("toString")) return "Buffered metadata: " + columns + " columns";
+				if (name.equals("getColumnCount")) return columns;
+				Object[] column = values.get(name);
+				if (column == null) throw new SQLFeatureNotSupportedException(name);
+				int index = (Integer) args[0];
+				if (index < 1 || index > columns) throw new SQLException("No column: " + index);
+				return column[index - 1];
+			}
+		});
+	}
+
+	private static Object[] filled(int count, Object value) {
+		Object[] values = new Object[count];
+		Arrays.fill(values, value);
+		return values;
+	}
+
+}
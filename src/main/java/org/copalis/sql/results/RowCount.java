@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.results;
+
+import java.lang.reflect.Proxy;
+
+import org.copalis.sql.Results;
+
+/**
+ * Counts the rows read from the results of a session method,
+ * and reports the count once the results are exhausted or closed
+ *
+ * @author gilesjb
+ */
+public final class RowCount {
+
+	/**
+	 * Receives the number of rows read from a method's results
+	 */
+	public interface Listener {
+		
+		/**
+		 * @param rows the number of rows read
+		 * @param firstRowNanos the time from observation until the first row was read, or -1 if there were none
+		 * @param openNanos the time from observation until the results were exhausted or closed
+		 */
+		void fetched(int rows, long firstRowNanos, long openNanos);
+	}
+
+	private final Listener listener;
+	private final long start = System.nanoTime();
+	private long firstRow = -1;
+	private int rows = 0;
+	private boolean reported = false;
+
+	private RowCount(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Counts the rows read from a {@link Results} object or {@link org.copalis.sql.Cursor}
+	 * created by this library
+	 * @param result the value returned by a session method
+	 * @param listener receives the row count
+	 * @return true if the result can be counted
+	 */
+	public static boolean observe(Object result, Listener listener) {
+		if (result instanceof ResultSetCursor) {
+			((ResultSetCursor<?>) result).count = new RowCount(listener);
+		} else if (result instanceof GeneratedResults) {
+			((GeneratedResults) result).count = new RowCount(listener);
+		} else if (result instanceof Results && Proxy.isProxyClass(result.getClass())
+				&& Proxy.getInvocationHandler(result) instanceof ResultsProxy) {
+			((ResultsProxy) Proxy.getInvocationHandler(result)).count = new RowCount(listener);
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Records a move to the next row
+	 * @param more true if there was another row
+	 */
+	void next(boolean more) {
+		if (more) {
+			if (rows++ == 0) firstRow = System.nanoTime() - start;
+		} else {
+			close();
+		}
+	}
+
+	void close() {
+		if (reported) return;
+		reported = true;
+		listener.fetched(rows, firstRow, System.nanoTime() - start);
+	}
+}
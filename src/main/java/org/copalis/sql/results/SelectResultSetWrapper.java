@@ -19,6 +19,7 @@ import java.lang.reflect.Method;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -32,14 +33,14 @@ import org.copalis.sql.common.FieldType;
 public class SelectResultSetWrapper<C extends Results> implements ResultSetWrapper<C> {
 	
 	private final Class<C> type;
-	private final Map<Method, ResultsMethodHandler> handlers;
+	private final ResultsProxy.Dispatch dispatch;
 	
 	public SelectResultSetWrapper(Class<C> type, ResultSetMetaData meta) throws SQLException {
 		if (ResultsProperty.subResults(type).length > 0) {
 			throw new IllegalArgumentException("Result type must not have qualifier methods");
 		}
 		this.type = type;
-		this.handlers = new HashMap<Method, ResultsMethodHandler>();
+		Map<Method, ResultsMethodHandler> handlers = new HashMap<Method, ResultsMethodHandler>();
 		
 		ResultsProperty[] properties = ResultsProperty.properties(type);
 
@@ -57,9 +58,11 @@ public class SelectResultSetWrapper<C extends Results> implements ResultSetWrapp
 			property.validateTypes(FieldType.forClassName(meta.getColumnClassName(i)));
 			property.createMethodHandlers(handlers, i);
 		}
+		this.dispatch = new ResultsProxy.Dispatch(
+				type, handlers, Collections.<Method, ResultsMethodHandler.Factory>emptyMap());
 	}
 
 	public C wrap(ResultSet results) {
-		return ResultsProxy.proxy(type, results, handlers);
+		return type.cast(dispatch.proxy(results));
 	}
 }
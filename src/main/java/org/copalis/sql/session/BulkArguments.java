@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Support for {@link org.copalis.sql.Session.Update#bulk() bulk} update methods whose single parameter
+ * is an {@link Iterable}, {@link Iterator} or object array of argument tuples.
+ * <p>
+ * Each element supplies the arguments of one command: an {@code Object[]} or {@link List}
+ * element supplies {@code $1, $2 ...} in order, and any other element is the value of {@code $1}
+ *
+ * @author gilesjb
+ */
+class BulkArguments {
+	
+	private BulkArguments() {}
+	
+	/**
+	 * @param method a session method
+	 * @return true if the method takes a single parameter that can be a collection of argument tuples
+	 */
+	static boolean accepts(Method method) {
+		Class<?>[] params = method.getParameterTypes();
+		if (params.length != 1) return false;
+		Class<?> param = params[0];
+		return Iterable.class.isAssignableFrom(param) || Iterator.class.isAssignableFrom(param) ||
+				param.isArray() && !param.getComponentType().isPrimitive();
+	}
+	
+	/**
+	 * Gets the declared type of the collection elements, if they are single values
+	 * @param method a method that {@link #accepts(Method) accepts} a collection
+	 * @return the element type, or null if elements are tuples or their type is not known
+	 */
+	static Class<?> elementType(Method method) {
+		Class<?> param = method.getParameterTypes()[0];
+		Type type = null;
+		if (param.isArray()) {
+			type = param.getComponentType();
+		} else if (method.getGenericParameterTypes()[0] instanceof ParameterizedType) {
+			type = ((ParameterizedType) method.getGenericParameterTypes()[0]).getActualTypeArguments()[0];
+		}
+		if (!(type instanceof Class)) return null;
+		
+		Class<?> element = (Class<?>) type;
+		if (element.isArray() || List.class.isAssignableFrom(element) || element == Object.class) return null;
+		return element;
+	}
+	
+	/**
+	 * @param collection the argument of a method that {@link #accepts(Method) accepts} a collection
+	 * @return an iterator over the elements
+	 */
+	static Iterator<?> iterator(Object collection) {
+		if (collection instanceof Iterator) return (Iterator<?>) collection;
+		if (collection instanceof Iterable) return ((Iterable<?>) collection).iterator();
+		return Arrays.asList((Object[]) collection).iterator();
+	}
+	
+	/**
+	 * @param element a collection element
+	 * @return the arguments supplied by the element
+	 */
+	static Object[] tuple(Object element) {
+		if (element instanceof Object[]) return (Object[]) element;
+		if (element instanceof List) return ((List<?>) element).toArray();
+		return new Object[] {element};
+	}
+}
@@ -0,0 +1,498 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.copalis.sql.common.Finalizer;
+
+/**
+ * A {@link Connector} that keeps a pool of connections from another {@link Connector}.
+ * <p>
+ * Borrowed connections are returned to the pool when they are closed,
+ * so closing a {@link org.copalis.sql.Session} created from the pool returns its connection.
+ * Statements created with a borrowed connection are closed when it is returned,
+ * and any uncommitted transaction is rolled back.
+ * <p>
+ * Idle connections are kept on a lock-free stack, so the most recently used connections
+ * are borrowed first and surplus connections remain idle until they are evicted.
+ * A connection that has been idle for longer than {@link #VALIDATE_AFTER_MILLIS}
+ * is validated before it is borrowed.
+ * <p>
+ * Each physical connection has a {@link StatementCache}, which sessions use to
+ * reuse the statements prepared by earlier sessions on the same connection.
+ * <p>
+ * The pool keeps its connections open and runs an eviction thread until it is {@link #close() closed}
+ *
+ * @author gilesjb
+ */
+public class ConnectionPool implements Connector {
+
+	public static final long DEFAULT_IDLE_MILLIS = 10 * 60 * 1000;
+	public static final long DEFAULT_WAIT_MILLIS = 30 * 1000;
+	public static final long VALIDATE_AFTER_MILLIS = 1000;
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+	private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+	private static final long RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	private final Connector source;
+	private final int minSize, maxSize;
+	private final long idleMillis, waitMillis;
+	private final int statementCacheSize;
+
+	private final Semaphore available;
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicReference<Node> idle = new AtomicReference<Node>();
+	private final ScheduledExecutorService evictor;
+	private final Set<Pooled> all = Collections.newSetFromMap(new ConcurrentHashMap<Pooled, Boolean>());
+	private final AtomicLong retiredHits = new AtomicLong(), retiredMisses = new AtomicLong();
+	private volatile boolean closed = false;
+
+	/**
+	 * A physical connection, its statement cache and the time it was last returned to the pool
+	 */
+	private static class Pooled {
+		final Connection connection;
+		final StatementCache statements;
+		long returned;
+
+		Pooled(Connection connection, int statementCacheSize) {
+			this.connection = connection;
+			this.statements = statementCacheSize > 0? new StatementCache(connection, statementCacheSize) : null;
+			this.returned = System.currentTimeMillis();
+		}
+	}
+
+	private static class Node {
+		final Pooled pooled;
+		final Node next;
+
+		Node(Pooled pooled, Node next) {
+			this.pooled = pooled;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * Creates a pool with the default idle and wait times
+	 * @param source the source of physical connections
+	 * @param minSize the number of connections kept when idle
+	 * @param maxSize the maximum number of connections
+	 */
+	public ConnectionPool(Connector source, int minSize, int maxSize) {
+		this(source, minSize, maxSize, DEFAULT_IDLE_MILLIS, DEFAULT_WAIT_MILLIS, DEFAULT_STATEMENT_CACHE_SIZE);
+	}
+
+	/**
+	 * Creates a pool with the default statement cache size
+	 * @param source the source of physical connections
+	 * @param minSize the number of connections kept when idle
+	 * @param maxSize the maximum number of connections
+	 * @param idleMillis the time after which surplus idle connections are closed
+	 * @param waitMillis the maximum time {@link #connect()} waits for a connection when all are in use
+	 */
+	public ConnectionPool(Connector source, int minSize, int maxSize, long idleMillis, long waitMillis) {
+		this(source, minSize, maxSize, idleMillis, waitMillis, DEFAULT_STATEMENT_CACHE_SIZE);
+	}
+
+	/**
+	 * Creates a pool
+	 * @param source the source of physical connections
+	 * @param minSize the number of connections kept when idle
+	 * @param maxSize the maximum number of connections
+	 * @param idleMillis the time after which surplus idle connections are closed
+	 * @param waitMillis the maximum time {@link #connect()} waits for a connection when all are in use
+	 * @param statementCacheSize the maximum number of cached statements per connection, or 0 for no cache
+	 */
+	public ConnectionPool(Connector source, int minSize, int maxSize, long idleMillis, long waitMillis,
+			int statementCacheSize) {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: " + minSize + ".." + maxSize);
+		}
+		this.source = source;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.idleMillis = idleMillis;
+		this.waitMillis = waitMillis;
+		this.statementCacheSize = statementCacheSize;
+		this.available = new Semaphore(maxSize);
+
+		this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ConnectionPool evictor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = Math.max(idleMillis / 2, 1);
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evict();
+			}
+		}, 0, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows a connection from the pool, waiting if all connections are in use
+	 * @return a {@link Connection} that is returned to the pool when it is closed
+	 * @throws SQLException if no connection became available, or one could not be created
+	 */
+	public Connection connect() throws SQLException {
+		if (closed) throw new SQLException("Connection pool is closed");
+		if (!available.tryAcquire()) {
+			try {
+				if (!available.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+					throw new SQLException("Timed out waiting for a pooled connection");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted waiting for a pooled connection");
+			}
+		}
+
+		try {
+			return borrowed(borrow());
+		} catch (SQLException e) {
+			available.release();
+			throw e;
+		} catch (RuntimeException e) {
+			available.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets an idle connection or creates a new one. The caller holds a permit,
+	 * so if the pool is full then at least one connection is idle, or is being returned,
+	 * discarded or created; the caller parks briefly while it waits for that to finish
+	 */
+	private Pooled borrow() throws SQLException {
+		while (true) {
+			Pooled pooled = pop();
+			if (pooled != null) {
+				if (valid(pooled)) return pooled;
+				discard(pooled);
+			} else if (size.incrementAndGet() <= maxSize) {
+				try {
+					return created(source.connect());
+				} catch (SQLException e) {
+					size.decrementAndGet();
+					throw e;
+				}
+			} else {
+				size.decrementAndGet();
+				LockSupport.parkNanos(RETRY_NANOS);
+			}
+		}
+	}
+
+	private boolean valid(Pooled pooled) {
+		if (System.currentTimeMillis() - pooled.returned < VALIDATE_AFTER_MILLIS) return true;
+		try {
+			return pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void release(Pooled pooled, boolean reusable) {
+		if (reusable && !closed) {
+			pooled.returned = System.currentTimeMillis();
+			restore(pooled);
+		} else {
+			discard(pooled);
+		}
+		available.release();
+	}
+
+	private Pooled created(Connection connection) {
+		Pooled pooled = new Pooled(connection, statementCacheSize);
+		all.add(pooled);
+		return pooled;
+	}
+
+	private void discard(Pooled pooled) {
+		size.decrementAndGet();
+		retire(pooled);
+	}
+
+	/**
+	 * Closes a connection that is no longer counted in the pool's size
+	 */
+	private void retire(Pooled pooled) {
+		if (all.remove(pooled) && pooled.statements != null) {
+			retiredHits.addAndGet(pooled.statements.hits());
+			retiredMisses.addAndGet(pooled.statements.misses());
+		}
+		new Finalizer().close(pooled.connection);
+	}
+
+	/**
+	 * Makes a connection idle, unless the pool has been closed,
+	 * in which case this closes the idle connections that {@link #close()} may have missed
+	 */
+	private void restore(Pooled pooled) {
+		push(pooled);
+		if (closed) drain();
+	}
+
+	private void drain() {
+		for (Pooled pooled = pop(); pooled != null; pooled = pop()) {
+			discard(pooled);
+		}
+	}
+
+	private void push(Pooled pooled) {
+		Node head;
+		do {
+			head = idle.get();
+		} while (!idle.compareAndSet(head, new Node(pooled, head)));
+	}
+
+	private Pooled pop() {
+		Node head;
+		do {
+			head = idle.get();
+			if (head == null) return null;
+		} while (!idle.compareAndSet(head, head.next));
+		return head.pooled;
+	}
+
+	/**
+	 * Closes connections that have been idle for too long,
+	 * and opens connections if there are fewer than the minimum.
+	 * <p>
+	 * Expired connections are unlinked by replacing the idle stack with a copy of its other nodes,
+	 * so the remaining idle connections can be borrowed throughout
+	 */
+	void evict() {
+		long expired = System.currentTimeMillis() - idleMillis;
+		while (!closed) {
+			Node head = idle.get();
+			int surplus = size.get() - minSize;
+			List<Pooled> kept = new ArrayList<Pooled>(), evicted = new ArrayList<Pooled>();
+			for (Node node = head; node != null; node = node.next) {
+				if (evicted.size() < surplus && node.pooled.returned < expired) {
+					evicted.add(node.pooled);
+				} else {
+					kept.add(node.pooled);
+				}
+			}
+			if (evicted.isEmpty()) break;
+
+			Node remaining = null;
+			for (int i = kept.size() - 1; i >= 0; i--) {
+				remaining = new Node(kept.get(i), remaining);
+			}
+			if (idle.compareAndSet(head, remaining)) {
+				size.addAndGet(-evicted.size());
+				for (Pooled pooled : evicted) {
+					retire(pooled);
+				}
+				break;
+			}
+		}
+
+		while (!closed && size.get() < minSize) {
+			if (size.incrementAndGet() > minSize) {
+				size.decrementAndGet();
+				break;
+			}
+			try {
+				restore(created(source.connect()));
+			} catch (SQLException e) {
+				size.decrementAndGet();
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of connections in the pool, whether idle or borrowed
+	 * @return the pool size
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Gets the number of times a session found a statement in a connection's {@link StatementCache}
+	 * @return the total number of statement cache hits
+	 */
+	public long statementCacheHits() {
+		long hits = retiredHits.get();
+		for (Pooled pooled : all) {
+			if (pooled.statements != null) hits += pooled.statements.hits();
+		}
+		return hits;
+	}
+
+	/**
+	 * Gets the number of times a session had to prepare a statement on a pooled connection
+	 * @return the total number of statement cache misses
+	 */
+	public long statementCacheMisses() {
+		long misses = retiredMisses.get();
+		for (Pooled pooled : all) {
+			if (pooled.statements != null) misses += pooled.statements.misses();
+		}
+		return misses;
+	}
+
+	/**
+	 * Closes all idle connections, and stops the pool, waiting for a running eviction to finish.
+	 * Borrowed connections are closed when they are returned
+	 */
+	public void close() {
+		closed = true;
+		evictor.shutdown();
+		try {
+			evictor.awaitTermination(waitMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		drain();
+	}
+
+	private Connection borrowed(final Pooled pooled) {
+		return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+				new Class<?>[] {Connection.class, StatementCache.Owner.class}, new InvocationHandler() {
+			private final Set<Statement> statements = Collections.newSetFromMap(new IdentityHashMap<Statement, Boolean>());
+			private boolean returned = false;
+
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("equals")) {
+					return proxy == args[0];
+				}
+				if (name.equals("hashCode")) {
+					return System.identityHashCode(proxy);
+				}
+				if (name.equals("close")) {
+					if (!returned) {
+						returned = true;
+						release(pooled, reset());
+					}
+					return null;
+				}
+				if (name.equals("isClosed")) {
+					return returned || pooled.connection.isClosed();
+				}
+				if (returned) {
+					if (name.equals("toString")) return "Returned " + pooled.connection;
+					throw new SQLException("Connection has been returned to the pool");
+				}
+				if (name.equals("statementCache")) {
+					return pooled.statements;
+				}
+				try {
+					Object result = method.invoke(pooled.connection, args);
+					if (result instanceof Statement) return tracked((Statement) result, method.getReturnType(), proxy);
+					return result;
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+
+			/**
+			 * Wraps a statement so that it is forgotten when it is closed,
+			 * and so that it and its results refer to the borrowed connection rather than the physical one
+			 */
+			private Object tracked(final Statement statement, Class<?> type, final Object connection) {
+				statements.add(statement);
+				return Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+						new Class<?>[] {type}, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if (name.equals("equals")) return proxy == args[0];
+						if (name.equals("hashCode")) return System.identityHashCode(proxy);
+						if (name.equals("getConnection")) return connection;
+						if (name.equals("close")) statements.remove(statement);
+						try {
+							Object result = method.invoke(statement, args);
+							return result instanceof ResultSet? results((ResultSet) result, proxy) : result;
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+			}
+
+			/**
+			 * Wraps a result set so that its statement is the tracked statement that created it
+			 */
+			private ResultSet results(final ResultSet results, final Object statement) {
+				return (ResultSet) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+						new Class<?>[] {ResultSet.class}, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if (name.equals("equals")) return proxy == args[0];
+						if (name.equals("hashCode")) return System.identityHashCode(proxy);
+						if (name.equals("getStatement")) return statement;
+						try {
+							return method.invoke(results, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+			}
+			
+			/**
+			 * Closes statements and ends any transaction
+			 * @return true if the connection can be reused
+			 */
+			private boolean reset() {
+				try {
+					for (Statement statement : statements) {
+						statement.close();
+					}
+					if (!pooled.connection.getAutoCommit()) {
+						pooled.connection.rollback();
+						pooled.connection.setAutoCommit(true);
+					}
+					pooled.connection.clearWarnings();
+					return true;
+				} catch (SQLException e) {
+					return false;
+				}
+			}
+		});
+	}
+}
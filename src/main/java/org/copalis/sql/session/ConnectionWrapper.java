@@ -18,10 +18,11 @@ package org.copalis.sql.session;
 import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import org.copalis.sql.Session;
+import org.copalis.sql.common.Generated;
 
 /**
  * An interface for a factory that creates {@link Session} wrappers for {@link Connection}s
@@ -39,20 +40,78 @@ public interface ConnectionWrapper<X extends Session> {
 	}
 	
 	public class Generic<T extends Session> implements ConnectionWrapper<T> {
-		private final Map<Method, SessionMethodHandler.Binder> methods = new HashMap<Method, SessionMethodHandler.Binder>();
+		private final SessionMethods methods;
 		private final Class<T> type;
+		private final GeneratedSession prototype;
 		
 		public Generic(Class<T> type, Connection connection) throws SQLException {
+			this(type, connection, new TableInvalidation());
+		}
+		
+		/**
+		 * Validates a session interface
+		 * @param type the interface
+		 * @param connection a connection to validate the interface's statements against
+		 * @param invalidation the {@link TableInvalidation} shared by interfaces of the same connection source
+		 * @throws SQLException
+		 */
+		public Generic(Class<T> type, Connection connection, TableInvalidation invalidation) throws SQLException {
+			this(type, Validation.validate(Validation.methods(type), connection), invalidation);
+		}
+		
+		/**
+		 * Creates a wrapper from the binders of a session interface's methods
+		 * @param type the interface
+		 * @param binders the binder of each user-defined method
+		 * @param invalidation the {@link TableInvalidation} shared by interfaces of the same connection source
+		 * @see Validation
+		 */
+		public Generic(Class<T> type, Map<Method, SessionMethodHandler.Binder> binders,
+				TableInvalidation invalidation) {
 			this.type = type;
-			for (Method method : type.getMethods()) {
-				if (method.getDeclaringClass() != Session.class) {
-					methods.put(method, SessionMethodType.forMethod(method, connection));
-				}
+			GeneratedSession generated = Generated.prototype(type, GeneratedSession.class);
+			SessionMethods ordered = generated == null? null : SessionMethods.ordered(binders, generated.signatures());
+			this.prototype = ordered == null? null : generated;
+			this.methods = (ordered == null? new SessionMethods(binders) : ordered).invalidating(invalidation);
+			
+			for (Map.Entry<Method, SessionMethodHandler.Binder> entry : binders.entrySet()) {
+				QueryCache cache = entry.getValue() instanceof SessionMethodHandler.Shared?
+						((SessionMethodHandler.Shared) entry.getValue()).cache() : null;
+				if (cache != null) invalidation.register(SessionMethodType.tables(entry.getKey()), cache);
 			}
 		}
 		
+		private Generic(Generic<T> generic, SessionMethods methods) {
+			this.type = generic.type;
+			this.prototype = generic.prototype;
+			this.methods = methods;
+		}
+		
+		/**
+		 * Creates a wrapper whose sessions run asynchronous methods on an executor
+		 * @param executor an {@link Executor}
+		 * @return a new wrapper for the same interface
+		 */
+		public Generic<T> using(Executor executor) {
+			return new Generic<T>(this, methods.using(executor));
+		}
+		
+		/**
+		 * Creates a wrapper whose sessions report method executions to a listener
+		 * @param listener a {@link MethodListener}
+		 * @return a new wrapper for the same interface
+		 */
+		public Generic<T> listening(MethodListener listener) {
+			return new Generic<T>(this, methods.listening(listener));
+		}
+		
+		/**
+		 * Wraps a connection with an instance of the generated implementation of the interface,
+		 * if there is one, or a dynamic proxy
+		 */
 		public T wrap(Connection connection) {
-			return SessionProxy.proxy(type, methods, connection);
+			return prototype != null? type.cast(prototype.create(connection, methods)) :
+				SessionProxy.proxy(type, methods, connection);
 		}
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,169 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.copalis.sql.common.Name;
+
+/**
+ * A {@link PhaseListener} that keeps the most recent prepare, execute, first-row and close events
+ * of session methods in a fixed-size ring, so that database stalls can be correlated
+ * with garbage collection and thread activity by wall-clock time and thread.
+ * <p>
+ * Recording does not lock; when the ring is full, the oldest events are overwritten
+ *
+ * @author gilesjb
+ */
+public class EventRecorder implements PhaseListener, EventRecorderMBean {
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * A recorded phase of a session method
+	 */
+	public static class Event {
+		public final long sequence, time, nanos;
+		public final String thread, phase, method, sql;
+		public final int rows;
+		public final Throwable failure;
+
+		Event(long sequence, String phase, String method, String sql, long nanos, int rows, Throwable failure) {
+			this.sequence = sequence;
+			this.time = System.currentTimeMillis();
+			this.thread = Thread.currentThread().getName();
+			this.phase = phase;
+			this.method = method;
+			this.sql = sql;
+			this.nanos = nanos;
+			this.rows = rows;
+			this.failure = failure;
+		}
+
+		@Override public String toString() {
+			return String.format("%s [%s] %s %s %dus%s%s: %s",
+					new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(time)), thread, phase, method,
+					nanos / 1000, rows < 0? "" : " " + rows + " rows", failure == null? "" : " failed: " + failure, sql);
+		}
+	}
+
+	private final AtomicReferenceArray<Event> events;
+	private final AtomicLong recorded = new AtomicLong();
+	private final ConcurrentMap<Method, String[]> names = new ConcurrentHashMap<Method, String[]>();
+
+	public EventRecorder() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity the number of events retained
+	 */
+	public EventRecorder(int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("Illegal capacity: " + capacity);
+		this.events = new AtomicReferenceArray<Event>(capacity);
+	}
+
+	private void record(String phase, Method method, long nanos, int rows, Throwable failure) {
+		String[] name = names.get(method);
+		if (name == null) {
+			name = new String[] {Name.of(method), SessionMethodType.sql(method)};
+			names.putIfAbsent(method, name);
+		}
+		long sequence = recorded.getAndIncrement();
+		events.set((int) (sequence % events.length()), new Event(sequence, phase, name[0], name[1], nanos, rows, failure));
+	}
+
+	public void prepared(Method method, long nanos) {
+		record("prepare", method, nanos, -1, null);
+	}
+
+	public void executed(Method method, Object[] args, long nanos, Throwable failure) {
+		record("execute", method, nanos, -1, failure);
+	}
+
+	public void firstRow(Method method, long nanos) {
+		record("first-row", method, nanos, -1, null);
+	}
+
+	public void closed(Method method, Object[] args, int rows, long nanos) {
+		if (rows >= 0) record("close", method, nanos, rows, null);
+	}
+
+	public void fetched(Method method, int rows) {
+		// recorded with the close event
+	}
+
+	/**
+	 * @return the retained events, oldest first
+	 */
+	public List<Event> events() {
+		long end = recorded.get();
+		List<Event> list = new ArrayList<Event>();
+		for (long i = Math.max(0, end - events.length()); i < end; i++) {
+			Event event = events.get((int) (i % events.length()));
+			if (event != null && event.sequence == i) list.add(event);
+		}
+		return list;
+	}
+
+	public String[] getEvents() {
+		List<Event> events = events();
+		String[] lines = new String[events.size()];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = events.get(i).toString();
+		}
+		return lines;
+	}
+
+	public int getCapacity() {
+		return events.length();
+	}
+
+	public long getRecorded() {
+		return recorded.get();
+	}
+
+	public void clear() {
+		for (int i = 0; i < events.length(); i++) {
+			events.set(i, null);
+		}
+		recorded.set(0);
+	}
+
+	/**
+	 * Registers this recorder with the platform MBean server
+	 * @param name a name that identifies the recorder
+	 * @return the registered object name
+	 * @throws JMException if the recorder cannot be registered
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName object = new ObjectName("org.copalis.sql:type=EventRecorder,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, object);
+		return object;
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+/**
+ * The JMX view of an {@link EventRecorder}
+ *
+ * @author gilesjb
+ */
+public interface EventRecorderMBean {
+
+	/**
+	 * @return the retained events, oldest first, one per line
+	 */
+	String[] getEvents();
+
+	int getCapacity();
+
+	/**
+	 * @return the number of events recorded since the recorder was created or cleared
+	 */
+	long getRecorded();
+
+	void clear();
+}
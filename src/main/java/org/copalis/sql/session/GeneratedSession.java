@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.sql.Connection;
+
+import org.copalis.sql.BatchResults;
+import org.copalis.sql.Session;
+
+/**
+ * A base class for {@link Session} implementations generated at compile time.
+ * <p>
+ * Each generated method calls {@link #execute(int, Object[])} with its slot,
+ * in the order given by {@link #signatures()},
+ * so no reflective dispatch is needed
+ *
+ * @author gilesjb
+ * @see org.copalis.sql.common.Generated
+ */
+public abstract class GeneratedSession implements Session {
+	private final SessionBinding binding;
+
+	/**
+	 * Creates a prototype
+	 */
+	protected GeneratedSession() {
+		this.binding = null;
+	}
+
+	protected GeneratedSession(Connection connection, SessionMethods methods) {
+		this.binding = new SessionBinding(connection, methods);
+	}
+
+	/**
+	 * Gets the {@link org.copalis.sql.common.Name#signature(java.lang.reflect.Method) signatures}
+	 * of the implemented methods, in slot order
+	 * @return an array of method signatures
+	 */
+	public abstract String[] signatures();
+
+	/**
+	 * Creates a session
+	 * @param connection the connection the session wraps
+	 * @param methods the session methods, in the order of {@link #signatures()}
+	 * @return a new instance of the generated class
+	 */
+	public abstract GeneratedSession create(Connection connection, SessionMethods methods);
+
+	protected final Object execute(int slot, Object[] args) {
+		return binding.execute(slot, args);
+	}
+
+	SessionBinding binding() {
+		return binding;
+	}
+
+	public Connection connection() {
+		return binding.connection();
+	}
+
+	public BatchResults flush() {
+		return binding.flush();
+	}
+
+	public void close() {
+		binding.close();
+	}
+
+	@Override public String toString() {
+		return String.valueOf(binding);
+	}
+}
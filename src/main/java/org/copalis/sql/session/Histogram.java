@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of positive values with logarithmic buckets, which records without locking.
+ * <p>
+ * Each power of two is divided into {@value #SUB_BUCKETS} linear sub-buckets,
+ * so recorded values are accurate to within 1/{@value #SUB_BUCKETS} of their magnitude
+ *
+ * @author gilesjb
+ */
+public class Histogram {
+
+	public static final int SUB_BUCKETS = 8;
+	private static final int SUB_BITS = 3;
+
+	private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) return (int) Math.max(value, 0);
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return the largest value that is counted in a bucket
+	 */
+	static long highest(int bucket) {
+		if (bucket < SUB_BUCKETS) return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+		return lowest + (1L << (exponent - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Records a value
+	 * @param value a non-negative value
+	 */
+	public void record(long value) {
+		counts.incrementAndGet(bucket(value));
+	}
+
+	public long count() {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the value at a percentile of the recorded values
+	 * @param percentile a percentile between 0 and 100
+	 * @return an upper bound of the value, or 0 if no values were recorded
+	 */
+	public long percentile(double percentile) {
+		long[] snapshot = new long[counts.length()];
+		long total = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			total += snapshot[i] = counts.get(i);
+		}
+		long rank = (long) Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100);
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if (seen >= Math.max(rank, 1)) return highest(i);
+		}
+		return 0;
+	}
+
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The executions of a {@link org.copalis.sql.Session.SingleFlight} method that are in progress,
+ * keyed by argument values.
+ * <p>
+ * The first caller for a key runs the execution on its own thread,
+ * and callers with an equal key that arrive before it completes wait for its result
+ * or exception instead of executing the method again
+ *
+ * @author gilesjb
+ */
+public class InFlight {
+	private final ConcurrentMap<QueryCache.Key, FutureTask<Object>> calls =
+			new ConcurrentHashMap<QueryCache.Key, FutureTask<Object>>();
+	private final AtomicLong joined = new AtomicLong();
+	
+	/**
+	 * Executes a call, or waits for an execution with the same key that is in progress
+	 * @param key the method arguments
+	 * @param call executes the method
+	 * @return the method result
+	 */
+	public Object execute(QueryCache.Key key, Callable<Object> call) {
+		FutureTask<Object> task = new FutureTask<Object>(call);
+		FutureTask<Object> running = calls.putIfAbsent(key, task);
+		if (running == null) {
+			try {
+				task.run();
+			} finally {
+				calls.remove(key, task);
+			}
+			running = task;
+		} else {
+			joined.incrementAndGet();
+		}
+		return result(running);
+	}
+	
+	private static Object result(FutureTask<Object> task) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+					if (cause instanceof Error) throw (Error) cause;
+					throw new RuntimeException(cause);
+				}
+			}
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * @return the number of calls that shared another call's execution
+	 */
+	public long joined() {
+		return joined.get();
+	}
+	
+	/**
+	 * @return the number of executions in progress
+	 */
+	public int size() {
+		return calls.size();
+	}
+	
+	@Override public String toString() {
+		return "InFlight: " + size() + " executions, " + joined() + " joined";
+	}
+}
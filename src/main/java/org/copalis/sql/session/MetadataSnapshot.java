@@ -0,0 +1,325 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.copalis.sql.common.Finalizer;
+
+/**
+ * A file of the result set and parameter metadata gathered when {@link org.copalis.sql.Session}
+ * interfaces are validated, so that a restarted process can validate the interfaces
+ * without preparing their statements against the database.
+ * <p>
+ * The metadata of each interface is keyed by a fingerprint of its methods, their annotations and
+ * the schema version, and the metadata of each statement by its SQL text,
+ * so a snapshot is not used when the interface or the schema version changes.
+ * The schema version is supplied by the application and must be changed when the schema changes.
+ * If a snapshot cannot be used, the interface is validated against the database and the snapshot is rewritten
+ *
+ * @author gilesjb
+ */
+public class MetadataSnapshot {
+
+	/**
+	 * The recorded metadata of a prepared statement
+	 */
+	private static class Statement implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		boolean described, parameterized;
+		Map<String, Object[]> columns, parameters;
+		int columnCount, parameterCount;
+	}
+
+	private final File file;
+	private final String schema;
+	private Map<String, Map<String, Statement>> interfaces = null;
+	private int replayed = 0, recorded = 0;
+
+	/**
+	 * @param file the snapshot file, which is created if it does not exist
+	 * @param schema the version of the database schema
+	 */
+	public MetadataSnapshot(File file, String schema) {
+		this.file = file;
+		this.schema = schema;
+	}
+
+	/**
+	 * Creates the binders of a session interface's methods,
+	 * with the snapshot of the interface's metadata if there is one, or else with a connection
+	 * @param methods the user-defined methods of the interface
+	 * @param connector the source of connections the interface will wrap
+	 * @return the binder of each method
+	 * @throws SQLException
+	 */
+	synchronized Map<Method, SessionMethodHandler.Binder> binders(Collection<Method> methods, Connector connector)
+			throws SQLException {
+		String fingerprint = fingerprint(methods);
+		Map<String, Statement> statements = load().get(fingerprint);
+		if (statements != null) {
+			try {
+				Map<Method, SessionMethodHandler.Binder> binders = Validation.validate(methods, replay(statements));
+				replayed++;
+				return binders;
+			} catch (Exception e) {
+				// the snapshot is incomplete, so validate with the database
+			}
+		}
+
+		statements = new HashMap<String, Statement>();
+		Connection connection = connector.connect();
+		Finalizer handler = new Finalizer();
+		Map<Method, SessionMethodHandler.Binder> binders;
+		try {
+			binders = Validation.validate(methods, record(connection, statements));
+		} catch (Exception e) {
+			throw handler.wrap(e);
+		} finally {
+			handler.close(connection);
+		}
+		interfaces.put(fingerprint, statements);
+		recorded++;
+		save();
+		return binders;
+	}
+
+	/**
+	 * @return the number of interfaces validated with this snapshot
+	 */
+	public synchronized int replayed() {
+		return replayed;
+	}
+
+	/**
+	 * @return the number of interfaces validated with the database and added to this snapshot
+	 */
+	public synchronized int recorded() {
+		return recorded;
+	}
+
+	private String fingerprint(Collection<Method> methods) {
+		Map<String, String> signatures = new TreeMap<String, String>();
+		for (Method method : methods) {
+			signatures.put(method.toGenericString(), Arrays.toString(method.getAnnotations()));
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(schema.getBytes("UTF-8"));
+			for (Map.Entry<String, String> signature : signatures.entrySet()) {
+				digest.update(signature.getKey().getBytes("UTF-8"));
+				digest.update(signature.getValue().getBytes("UTF-8"));
+			}
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Map<String, Statement>> load() {
+		if (interfaces != null) return interfaces;
+		interfaces = new HashMap<String, Map<String, Statement>>();
+		if (!file.exists()) return interfaces;
+		try {
+			ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+			try {
+				interfaces.putAll((Map<String, Map<String, Statement>>) in.readObject());
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			// an unreadable snapshot is replaced
+		}
+		return interfaces;
+	}
+
+	private void save() {
+		try {
+			File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+			ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(temp));
+			try {
+				out.writeObject(interfaces);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) temp.delete();
+		} catch (IOException e) {
+			// the snapshot is only an optimization; validation will use the database next time
+		}
+	}
+
+	private static Statement statement(Map<String, Statement> statements, String sql) {
+		Statement statement = statements.get(sql);
+		if (statement == null) statements.put(sql, statement = new Statement());
+		return statement;
+	}
+
+	/**
+	 * Wraps a connection so that the metadata of its prepared statements is recorded
+	 */
+	private static Connection record(final Connection connection, final Map<String, Statement> statements) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] {Connection.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				Object result = delegate(connection, method, args);
+				if (!method.getName().equals("prepareStatement")) return result;
+
+				final PreparedStatement stmt = (PreparedStatement) result;
+				final Statement statement = statement(statements, (String) args[0]);
+				return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+						new Class<?>[] {PreparedStatement.class}, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						Object result = delegate(stmt, method, args);
+						if (method.getName().equals("getMetaData")) {
+							ResultSetMetaData meta = (ResultSetMetaData) result;
+							statement.columnCount = meta == null? 0 : meta.getColumnCount();
+							statement.columns = meta == null? null : copy(ResultSetMetaData.class, meta, statement.columnCount);
+							statement.described = true;
+						} else if (method.getName().equals("getParameterMetaData")) {
+							ParameterMetaData meta = (ParameterMetaData) result;
+							statement.parameterCount = meta == null? 0 : meta.getParameterCount();
+							statement.parameters = meta == null? null : copy(ParameterMetaData.class, meta, statement.parameterCount);
+							statement.parameterized = true;
+						}
+						return result;
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Creates a connection that prepares statements that only report their recorded metadata
+	 */
+	private static Connection replay(final Map<String, Statement> statements) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] {Connection.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("close")) return null;
+				if (name.equals("isClosed")) return false;
+				if (!name.equals("prepareStatement")) throw new SQLFeatureNotSupportedException(name);
+
+				final Statement statement = statements.get(args[0]);
+				if (statement == null) throw new SQLException("Statement is not in snapshot: " + args[0]);
+				return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+						new Class<?>[] {PreparedStatement.class}, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if (name.equals("getMetaData") && statement.described) {
+							return statement.columns == null? null : metadata(ResultSetMetaData.class,
+									"getColumnCount", statement.columnCount, statement.columns);
+						}
+						if (name.equals("getParameterMetaData") && statement.parameterized) {
+							return statement.parameters == null? null : metadata(ParameterMetaData.class,
+									"getParameterCount", statement.parameterCount, statement.parameters);
+						}
+						if (name.equals("close") || name.equals("setFetchSize") || name.equals("setMaxRows")) {
+							return null;
+						}
+						throw new SQLException("Not recorded in snapshot: " + name);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Copies the values of the methods of a metadata object that take a column or parameter index
+	 */
+	private static Map<String, Object[]> copy(Class<?> type, Object meta, int count) throws IllegalAccessException {
+		Map<String, Object[]> values = new HashMap<String, Object[]>();
+		for (Method method : type.getMethods()) {
+			if (!Arrays.equals(method.getParameterTypes(), new Class<?>[] {int.class})) continue;
+			Object[] indexed = new Object[count];
+			try {
+				for (int i = 0; i < count; i++) {
+					indexed[i] = method.invoke(meta, i + 1);
+					if (indexed[i] != null && !(indexed[i] instanceof Serializable)) {
+						throw new IllegalArgumentException();
+					}
+				}
+				values.put(method.getName(), indexed);
+			} catch (InvocationTargetException e) {
+				// not supported by the driver
+			} catch (IllegalArgumentException e) {
+				// not a recordable value
+			}
+		}
+		return values;
+	}
+
+	private static <T> T metadata(Class<T> type, final String counter, final int count,
+			final Map<String, Object[]> values) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("equals")) return proxy == args[0];
+				if (name.equals("hashCode")) return System.identityHashCode(proxy);
+				if (name.equals("toString")) return "Snapshot metadata: " + count;
+				if (name.equals(counter)) return count;
+				Object[] indexed = values.get(name);
+				if (indexed == null) throw new SQLFeatureNotSupportedException(name);
+				int index = (Integer) args[0];
+				if (index < 1 || index > count) throw new SQLException("No index: " + index);
+				return indexed[index - 1];
+			}
+		}));
+	}
+
+	private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	@Override public String toString() {
+		return "MetadataSnapshot " + file + ": schema " + schema;
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.lang.reflect.Method;
+
+/**
+ * Receives the executions of session methods, for monitoring.
+ * <p>
+ * Listeners are registered with {@link org.copalis.sql.Connecting#listening(MethodListener)},
+ * and are called on the thread that executes the method, so they should return quickly
+ * and must be thread-safe. Cached values and shared executions that do not use the
+ * session's connection are not reported
+ *
+ * @author gilesjb
+ */
+public interface MethodListener {
+
+	/**
+	 * Called after a session method's statements have executed
+	 * @param method the session interface method
+	 * @param args the method arguments, which must not be modified
+	 * @param nanos the execution time in nanoseconds
+	 * @param failure the exception thrown by the method, or null if it succeeded
+	 */
+	void executed(Method method, Object[] args, long nanos, Throwable failure);
+
+	/**
+	 * Called when the {@link org.copalis.sql.Results} or {@link org.copalis.sql.Cursor}
+	 * returned by a method are exhausted or closed
+	 * @param method the session interface method
+	 * @param rows the number of rows read
+	 */
+	void fetched(Method method, int rows);
+}
@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.copalis.sql.common.Name;
+
+/**
+ * A {@link MethodListener} that counts the calls, errors and rows fetched of each session method,
+ * and records their latencies in {@link Histogram}s.
+ * The metrics can be viewed with JMX after they are {@link #register(String) registered}
+ *
+ * @author gilesjb
+ */
+public class MethodMetrics implements MethodListener, MethodMetricsMBean {
+
+	/**
+	 * The metrics of one method
+	 */
+	public static class Stats {
+		final AtomicLong calls = new AtomicLong(), errors = new AtomicLong(), rows = new AtomicLong();
+		final Histogram latency = new Histogram();
+
+		public long calls() {
+			return calls.get();
+		}
+
+		public long errors() {
+			return errors.get();
+		}
+
+		public long rows() {
+			return rows.get();
+		}
+
+		/**
+		 * @return the execution times in nanoseconds
+		 */
+		public Histogram latency() {
+			return latency;
+		}
+
+		void reset() {
+			calls.set(0);
+			errors.set(0);
+			rows.set(0);
+			latency.reset();
+		}
+	}
+
+	private final ConcurrentMap<Method, Stats> stats = new ConcurrentHashMap<Method, Stats>();
+
+	private Stats stats(Method method) {
+		Stats existing = stats.get(method);
+		if (existing != null) return existing;
+		stats.putIfAbsent(method, new Stats());
+		return stats.get(method);
+	}
+
+	public void executed(Method method, Object[] args, long nanos, Throwable failure) {
+		Stats stats = stats(method);
+		stats.calls.incrementAndGet();
+		if (failure != null) stats.errors.incrementAndGet();
+		stats.latency.record(nanos);
+	}
+
+	public void fetched(Method method, int rows) {
+		stats(method).rows.addAndGet(rows);
+	}
+
+	/**
+	 * @return the metrics of each method that has been executed
+	 */
+	public Map<String, Stats> stats() {
+		Map<String, Stats> named = new TreeMap<String, Stats>();
+		for (Map.Entry<Method, Stats> entry : stats.entrySet()) {
+			named.put(Name.of(entry.getKey()), entry.getValue());
+		}
+		return named;
+	}
+
+	private Stats named(String method) {
+		Stats named = stats().get(method);
+		if (named == null) throw new IllegalArgumentException("No metrics for method: " + method);
+		return named;
+	}
+
+	public String[] getMethodNames() {
+		return stats().keySet().toArray(new String[0]);
+	}
+
+	public long getCalls(String method) {
+		return named(method).calls();
+	}
+
+	public long getErrors(String method) {
+		return named(method).errors();
+	}
+
+	public long getRows(String method) {
+		return named(method).rows();
+	}
+
+	public long getLatencyPercentile(String method, double percentile) {
+		return named(method).latency.percentile(percentile) / 1000;
+	}
+
+	public String getSummary() {
+		StringBuilder summary = new StringBuilder();
+		for (Map.Entry<String, Stats> entry : stats().entrySet()) {
+			Stats stats = entry.getValue();
+			summary.append(String.format("%s: %d calls, %d errors, %d rows, p50 %dus, p99 %dus, max %dus%n",
+					entry.getKey(), stats.calls(), stats.errors(), stats.rows(),
+					stats.latency.percentile(50) / 1000, stats.latency.percentile(99) / 1000,
+					stats.latency.percentile(100) / 1000));
+		}
+		return summary.toString();
+	}
+
+	public void reset() {
+		for (Stats stats : this.stats.values()) {
+			stats.reset();
+		}
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server
+	 * @param name a name that identifies the metrics
+	 * @return the registered object name
+	 * @throws JMException if the metrics cannot be registered
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName object = new ObjectName("org.copalis.sql:type=MethodMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, object);
+		return object;
+	}
+
+	@Override public String toString() {
+		return getSummary();
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.lang.reflect.Method;
+
+/**
+ * A {@link MethodListener} that also receives the phases of a method's lifetime:
+ * the preparation of its statements when it is first bound to a session's connection,
+ * the time until the first row of its results is read, and the completion of the call.
+ * <p>
+ * The SQL of a method can be looked up with {@link SessionMethodType#sql(Method)}
+ *
+ * @author gilesjb
+ * @see EventRecorder
+ */
+public interface PhaseListener extends MethodListener {
+
+	/**
+	 * Called after a method's statements have been prepared for a session
+	 * @param method the session interface method
+	 * @param nanos the preparation time in nanoseconds
+	 */
+	void prepared(Method method, long nanos);
+
+	/**
+	 * Called when the first row of a method's results is read
+	 * @param method the session interface method
+	 * @param nanos the time in nanoseconds from the method's return to the first row
+	 */
+	void firstRow(Method method, long nanos);
+
+	/**
+	 * Called when a successful call is complete: when the results it returned are exhausted or closed,
+	 * or immediately after it executes if its rows are not counted
+	 * @param method the session interface method
+	 * @param args the method arguments, which must not be modified
+	 * @param rows the number of rows read, or -1 if the rows are not counted
+	 * @param nanos the time in nanoseconds from the start of the call until it was complete
+	 */
+	void closed(Method method, Object[] args, int rows, long nanos);
+}
@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the values returned by a {@link org.copalis.sql.Session.Cached} method, keyed by argument values.
+ * <p>
+ * Entries are divided between independently locked stripes by the hash of their key,
+ * and each stripe evicts its least-recently-used entries when it is full
+ *
+ * @author gilesjb
+ */
+public class QueryCache {
+	
+	/**
+	 * The value returned by {@link #get(Key)} when there is no entry for a key
+	 */
+	public static final Object MISS = new Object();
+	
+	private static final int STRIPES = 16;
+	
+	private final long ttlNanos;
+	private final Stripe[] stripes;
+	
+	/**
+	 * The arguments of a method call
+	 */
+	public static final class Key {
+		private final Object[] args;
+		private final int hash;
+		
+		private Key(Object[] args) {
+			this.args = args;
+			this.hash = Arrays.deepHashCode(args);
+		}
+		
+		@Override public boolean equals(Object obj) {
+			return obj instanceof Key && hash == ((Key) obj).hash && Arrays.deepEquals(args, ((Key) obj).args);
+		}
+		
+		@Override public int hashCode() {
+			return hash;
+		}
+		
+		@Override public String toString() {
+			return Arrays.deepToString(args);
+		}
+	}
+	
+	private static class Entry {
+		final Object value;
+		final long expires;
+		
+		Entry(Object value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+	
+	private static class Stripe extends LinkedHashMap<Key, Entry> {
+		private static final long serialVersionUID = 1L;
+		
+		private final int capacity;
+		long hits, misses;
+		
+		Stripe(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+		
+		@Override protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+			return size() > capacity;
+		}
+	}
+	
+	/**
+	 * @param ttlMillis the time for which an entry is valid, or 0 if entries do not expire
+	 * @param maxEntries the maximum number of entries
+	 */
+	public QueryCache(long ttlMillis, int maxEntries) {
+		if (ttlMillis < 0 || maxEntries < 1) {
+			throw new IllegalArgumentException("Illegal cache ttl " + ttlMillis + " or size " + maxEntries);
+		}
+		this.ttlNanos = ttlMillis * 1000000;
+		this.stripes = new Stripe[Math.min(STRIPES, maxEntries)];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe((maxEntries + stripes.length - 1) / stripes.length);
+		}
+	}
+	
+	/**
+	 * Creates a key for a method call
+	 * @param args the method arguments, which may be null
+	 * @return a new key
+	 */
+	public static Key key(Object[] args) {
+		return new Key(args == null? new Object[0] : args.clone());
+	}
+	
+	private Stripe stripe(Key key) {
+		int hash = key.hash ^ (key.hash >>> 16);
+		return stripes[(hash & Integer.MAX_VALUE) % stripes.length];
+	}
+	
+	/**
+	 * Looks up a cached value
+	 * @param key the method arguments
+	 * @return the cached value, which may be null, or {@link #MISS}
+	 */
+	public Object get(Key key) {
+		Stripe stripe = stripe(key);
+		synchronized (stripe) {
+			Entry entry = stripe.get(key);
+			if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.expires > 0) {
+				stripe.remove(key);
+				entry = null;
+			}
+			if (entry == null) {
+				stripe.misses++;
+				return MISS;
+			}
+			stripe.hits++;
+			return entry.value;
+		}
+	}
+	
+	/**
+	 * Adds a value to the cache
+	 * @param key the method arguments
+	 * @param value the method result
+	 */
+	public void put(Key key, Object value) {
+		Stripe stripe = stripe(key);
+		Entry entry = new Entry(value, System.nanoTime() + ttlNanos);
+		synchronized (stripe) {
+			stripe.put(key, entry);
+		}
+	}
+	
+	/**
+	 * Removes the entry for a key, if there is one
+	 * @param key the method arguments
+	 */
+	public void remove(Key key) {
+		Stripe stripe = stripe(key);
+		synchronized (stripe) {
+			stripe.remove(key);
+		}
+	}
+	
+	/**
+	 * Removes all entries
+	 */
+	public void clear() {
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.clear();
+			}
+		}
+	}
+	
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+	
+	public long hits() {
+		long hits = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				hits += stripe.hits;
+			}
+		}
+		return hits;
+	}
+	
+	public long misses() {
+		long misses = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				misses += stripe.misses;
+			}
+		}
+		return misses;
+	}
+	
+	@Override public String toString() {
+		return "QueryCache: " + size() + " entries, " + hits() + " hits, " + misses() + " misses";
+	}
+}
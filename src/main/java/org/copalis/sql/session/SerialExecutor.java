@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on another {@link Executor},
+ * so that the asynchronous methods of a session never use its connection concurrently
+ *
+ * @author gilesjb
+ */
+class SerialExecutor implements Executor {
+	private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+	private final Executor executor;
+	private Runnable active = null;
+	
+	SerialExecutor(Executor executor) {
+		this.executor = executor;
+	}
+	
+	public synchronized void execute(final Runnable task) {
+		tasks.offer(new Runnable() {
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					next();
+				}
+			}
+		});
+		if (active == null) next();
+	}
+	
+	private synchronized void next() {
+		active = tasks.poll();
+		if (active != null) executor.execute(active);
+	}
+	
+	/**
+	 * The executor used by sessions that are not given one
+	 */
+	static Executor shared() {
+		return Shared.EXECUTOR;
+	}
+	
+	private static class Shared {
+		static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Session executor " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+}
@@ -0,0 +1,333 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.copalis.sql.BatchResults;
+import org.copalis.sql.DataException;
+import org.copalis.sql.Session;
+import org.copalis.sql.common.Name;
+import org.copalis.sql.results.RowCount;
+
+/**
+ * The methods of a session bound to its {@link Connection}.
+ * Each method's handler is bound the first time the method is executed.
+ * <p>
+ * At most one {@link SessionMethodHandler.Batching batching} method has queued commands at a time;
+ * they are executed before any other method, so commands run in the order they were invoked.
+ * <p>
+ * {@link SessionMethodHandler.Asynchronous Asynchronous} methods are run one at a time
+ * on the executor of the {@link SessionMethods}, and methods never use the connection concurrently.
+ * The cached results of {@link SessionMethodHandler.Shared shared} methods are looked up before
+ * the method is bound or the connection is used, and are evicted when an update method
+ * writes to a table they read; within a transaction, eviction waits until it commits.
+ * A shared method that is already executing with equal arguments in another session
+ * may be joined rather than executed again
+ *
+ * @author gilesjb
+ */
+public class SessionBinding {
+	private final Connection connection;
+	private final SessionMethods methods;
+	private final SessionMethodHandler[] handlers;
+	
+	private int batching = SessionMethods.NONE;
+	private int[] counts = new int[0];
+	private int flushed = 0;
+	private List<Object> keys = new ArrayList<Object>();
+	
+	private SerialExecutor serial = null;
+	private volatile Future<?> submitted = null;
+	
+	private volatile Set<String> deferred = null;
+
+	public SessionBinding(Connection connection, SessionMethods methods) {
+		this.connection = connection;
+		this.methods = methods;
+		this.handlers = new SessionMethodHandler[methods == null? 0 : methods.size()];
+	}
+
+	/**
+	 * Gets the binding of a session created by this library
+	 * @param session a {@link Session}
+	 * @return its {@link SessionBinding}, or null if it is not a session of this library
+	 */
+	public static SessionBinding of(Session session) {
+		if (session instanceof GeneratedSession) return ((GeneratedSession) session).binding();
+		if (Proxy.isProxyClass(session.getClass())) {
+			Object handler = Proxy.getInvocationHandler(session);
+			if (handler instanceof SessionProxy) return ((SessionProxy) handler).binding();
+		}
+		return null;
+	}
+
+	/**
+	 * Executes a session method
+	 * @param slot the method's slot in the {@link SessionMethods}
+	 * @param args the method arguments
+	 * @return the method result
+	 * @throws DataException wrapping any {@link SQLException} thrown by the handler
+	 */
+	public Object execute(int slot, Object[] args) throws DataException {
+		SessionMethodHandler.Binder binder = methods.binder(slot);
+		if (binder instanceof SessionMethodHandler.Shared) {
+			return shared((SessionMethodHandler.Shared) binder, slot, args);
+		}
+		if (binder instanceof SessionMethodHandler.Asynchronous) return submit(slot, args);
+		return invoke(slot, args);
+	}
+	
+	/**
+	 * Executes a shared method. Within a transaction the cache and other sessions' executions
+	 * are bypassed, since the method may read the transaction's uncommitted writes
+	 */
+	private Object shared(SessionMethodHandler.Shared binder, final int slot, final Object[] args) {
+		if (deferred != null) return invoke(slot, args);
+		final QueryCache cache = binder.cache();
+		final QueryCache.Key key = QueryCache.key(args);
+		final long generation = cache != null? generation(slot) : 0;
+		if (cache != null) {
+			Object value = cache.get(key);
+			if (value != QueryCache.MISS) return value;
+		}
+		InFlight inFlight = binder.inFlight();
+		if (inFlight == null) {
+			Object value = invoke(slot, args);
+			if (cache != null) store(cache, key, value, slot, generation);
+			return value;
+		}
+		return inFlight.execute(key, new Callable<Object>() {
+			public Object call() {
+				Object value = invoke(slot, args);
+				if (cache != null) store(cache, key, value, slot, generation);
+				return value;
+			}
+		});
+	}
+	
+	private long generation(int slot) {
+		TableInvalidation invalidation = methods.invalidation();
+		String[] tables = methods.reads(slot);
+		return invalidation == null || tables == null? 0 : invalidation.generation(tables);
+	}
+	
+	/**
+	 * Caches a value, then removes it again if the tables it was read from
+	 * were invalidated after the generation read before the query was executed
+	 */
+	private void store(QueryCache cache, QueryCache.Key key, Object value, int slot, long generation) {
+		cache.put(key, value);
+		if (generation(slot) != generation) cache.remove(key);
+	}
+	
+	private Future<Object> submit(final int slot, final Object[] args) {
+		FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+			public Object call() {
+				return invoke(slot, args);
+			}
+		});
+		synchronized (this) {
+			if (serial == null) serial = new SerialExecutor(methods.executor());
+			serial.execute(task);
+			submitted = task;
+		}
+		return task;
+	}
+	
+	private Object invoke(final int slot, final Object[] args) throws DataException {
+		final MethodListener listener = methods.listener();
+		if (listener == null) return run(slot, args);
+		
+		long start = System.nanoTime();
+		Object result;
+		try {
+			result = run(slot, args);
+		} catch (RuntimeException e) {
+			listener.executed(methods.method(slot), args, System.nanoTime() - start, e);
+			throw e;
+		}
+		final long executed = System.nanoTime() - start;
+		listener.executed(methods.method(slot), args, executed, null);
+		if (result != null && RowCount.observe(result, new RowCount.Listener() {
+			public void fetched(int rows, long firstRowNanos, long openNanos) {
+				Method method = methods.method(slot);
+				listener.fetched(method, rows);
+				if (listener instanceof PhaseListener) {
+					if (firstRowNanos >= 0) ((PhaseListener) listener).firstRow(method, firstRowNanos);
+					((PhaseListener) listener).closed(method, args, rows, executed + openNanos);
+				}
+			}
+		})) return result;
+		
+		if (listener instanceof PhaseListener) {
+			((PhaseListener) listener).closed(methods.method(slot), args, -1, executed);
+		}
+		return result;
+	}
+	
+	private synchronized Object run(int slot, Object[] args) throws DataException {
+		if (batching != SessionMethods.NONE && batching != slot) executeBatch();
+		SessionMethodHandler handler = handlers[slot];
+		try {
+			if (handler == null) {
+				handler = handlers[slot] = bind(slot);
+			}
+			Object result = handler.execute(args);
+			if (handler instanceof SessionMethodHandler.Batching) {
+				batching = slot;
+				if (((SessionMethodHandler.Batching) handler).full()) executeBatch();
+			} else {
+				invalidate(methods.writes(slot));
+			}
+			return result;
+		} catch (SQLException e) {
+			throw DataException.wrap("In method: " + Name.of(methods.method(slot)), e);
+		}
+	}
+	
+	private SessionMethodHandler bind(int slot) throws SQLException {
+		MethodListener listener = methods.listener();
+		if (!(listener instanceof PhaseListener)) return methods.binder(slot).bind(connection);
+		
+		long start = System.nanoTime();
+		SessionMethodHandler handler = methods.binder(slot).bind(connection);
+		((PhaseListener) listener).prepared(methods.method(slot), System.nanoTime() - start);
+		return handler;
+	}
+	
+	private void executeBatch() throws DataException {
+		int slot = batching;
+		batching = SessionMethods.NONE;
+		try {
+			int[] batch = ((SessionMethodHandler.Batching) handlers[slot]).flush(keys);
+			if (flushed + batch.length > counts.length) {
+				counts = Arrays.copyOf(counts, Math.max(flushed + batch.length, counts.length * 2));
+			}
+			System.arraycopy(batch, 0, counts, flushed, batch.length);
+			flushed += batch.length;
+			invalidate(methods.writes(slot));
+		} catch (SQLException e) {
+			throw DataException.wrap("In method: " + Name.of(methods.method(slot)), e);
+		}
+	}
+	
+	private void invalidate(String[] tables) {
+		TableInvalidation invalidation = methods.invalidation();
+		if (tables == null || invalidation == null) return;
+		if (deferred != null) {
+			Collections.addAll(deferred, tables);
+		} else {
+			invalidation.invalidate(tables);
+		}
+	}
+	
+	/**
+	 * Defers the invalidation of cached results until the current transaction ends
+	 */
+	public synchronized void begin() {
+		deferred = new LinkedHashSet<String>();
+	}
+	
+	/**
+	 * Evicts the cached results that read tables written since {@link #begin()}
+	 */
+	public synchronized void commit() {
+		Set<String> tables = deferred;
+		deferred = null;
+		if (tables != null && !tables.isEmpty()) invalidate(tables.toArray(new String[tables.size()]));
+	}
+	
+	/**
+	 * Discards the tables written since {@link #begin()}, since the writes were rolled back
+	 */
+	public synchronized void rollback() {
+		deferred = null;
+	}
+	
+	/**
+	 * Executes any queued commands
+	 * @return the results of the commands executed since the last flush
+	 * @throws DataException
+	 */
+	public synchronized BatchResults flush() throws DataException {
+		if (batching != SessionMethods.NONE) executeBatch();
+		BatchResults results = new BatchResults(Arrays.copyOf(counts, flushed), keys);
+		flushed = 0;
+		keys = new ArrayList<Object>();
+		return results;
+	}
+
+	public SessionMethods methods() {
+		return methods;
+	}
+
+	public Connection connection() {
+		return connection;
+	}
+
+	public void close() {
+		awaitSubmitted();
+		synchronized (this) {
+			closeNow();
+		}
+	}
+	
+	/**
+	 * Waits until the last submitted asynchronous method, and so all of them, have completed.
+	 * Failures are reported by the methods' {@link Future}s
+	 */
+	public void awaitSubmitted() {
+		Future<?> last = submitted;
+		if (last == null) return;
+		try {
+			last.get();
+		} catch (ExecutionException e) {
+			// reported by the method's Future
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void closeNow() {
+		try {
+			if (batching != SessionMethods.NONE) executeBatch();
+		} finally {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				throw DataException.wrap(e);
+			}
+		}
+	}
+
+	@Override public String toString() {
+		return String.valueOf(methods);
+	}
+}
@@ -17,6 +17,7 @@ package org.copalis.sql.session;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
 
 /**
  * Handles execution of a user-defined Session method
@@ -24,7 +25,52 @@ import java.sql.SQLException;
 public interface SessionMethodHandler {
 	public Object execute(Object[] args) throws SQLException;
 	
+	/**
+	 * A handler that queues commands in a batch, which its session executes
+	 */
+	public interface Batching extends SessionMethodHandler {
+		
+		/**
+		 * @return true if the batch has reached its maximum size
+		 */
+		boolean full();
+		
+		/**
+		 * Executes the queued commands
+		 * @param keys a list to which generated keys are added
+		 * @return the update counts of the commands, or an empty array if none are queued
+		 * @throws SQLException
+		 */
+		int[] flush(List<Object> keys) throws SQLException;
+	}
+	
 	public interface Binder {
 		SessionMethodHandler bind(Connection connection) throws SQLException;
 	}
+	
+	/**
+	 * A binder for a method whose results are shared by the sessions of its interface:
+	 * results may be cached by argument values, so that its handler is only executed
+	 * when the cache does not contain a result, and concurrent calls with equal arguments
+	 * may share one execution
+	 */
+	public interface Shared extends Binder {
+		
+		/**
+		 * @return the cache of results, or null if results are not cached
+		 */
+		QueryCache cache();
+		
+		/**
+		 * @return the executions in progress, or null if each call executes the handler
+		 */
+		InFlight inFlight();
+	}
+	
+	/**
+	 * A binder for a method that returns a {@link java.util.concurrent.Future},
+	 * whose handlers are run asynchronously by their session
+	 */
+	public interface Asynchronous extends Binder {
+	}
 }
\ No newline at end of file
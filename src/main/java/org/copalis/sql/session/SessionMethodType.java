@@ -16,38 +16,152 @@
 package org.copalis.sql.session;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
+import org.copalis.sql.Cursor;
 import org.copalis.sql.Results;
+import org.copalis.sql.Session.Batch;
+import org.copalis.sql.Session.Cached;
+import org.copalis.sql.Session.Paged;
 import org.copalis.sql.Session.Query;
+import org.copalis.sql.Session.SingleFlight;
 import org.copalis.sql.Session.Update;
 import org.copalis.sql.common.FieldType;
 import org.copalis.sql.common.Finalizer;
+import org.copalis.sql.common.Generated;
 import org.copalis.sql.common.Name;
 import org.copalis.sql.common.ParameterizedStatement;
+import org.copalis.sql.results.GeneratedResults;
+import org.copalis.sql.results.PagedResultSet;
 import org.copalis.sql.results.PropertiesResultSetWrapper;
+import org.copalis.sql.results.ResultSetCursor;
 import org.copalis.sql.results.ResultSetWrapper;
 import org.copalis.sql.results.SelectResultSetWrapper;
 
 public enum SessionMethodType {
+	FUTURE {
+		protected SessionMethodHandler.Binder create(Method method, Class<?> ret, Connection connection)
+				throws SQLException {
+			if (ret != Future.class) return null;
+			
+			Type generic = method.getGenericReturnType();
+			Type value = generic instanceof ParameterizedType?
+					((ParameterizedType) generic).getActualTypeArguments()[0] : null;
+			if (!(value instanceof Class)) {
+				throw new IllegalArgumentException("Future value type must be a class");
+			}
+			Class<?> type = (Class<?>) value;
+			final boolean discard = type == Void.class;
+			if (method.isAnnotationPresent(Update.class)) {
+				if (type == Void.class) type = void.class;
+				if (type == Integer.class) type = int.class;
+			}
+			
+			for (SessionMethodType gen : values()) {
+				final SessionMethodHandler.Binder binder = gen == this? null : gen.create(method, type, connection);
+				if (binder != null) return new SessionMethodHandler.Asynchronous() {
+					public SessionMethodHandler bind(Connection connection) throws SQLException {
+						final SessionMethodHandler handler = binder.bind(connection);
+						return discard? new SessionMethodHandler() {
+							public Object execute(Object[] args) throws SQLException {
+								handler.execute(args);
+								return null;
+							}
+						} : handler;
+					}
+					
+					@Override public String toString() {
+						return FUTURE.toString() + ' ' + binder.toString();
+					}
+				};
+			}
+			throw new IllegalArgumentException("Not a valid Session method");
+		}
+	},
+	CURSOR {
+		protected SessionMethodHandler.Binder create(final Method method, Class<?> ret, Connection connection)
+				throws SQLException {
+			final Query query = method.getAnnotation(Query.class);
+			if (query == null || ret != Cursor.class && ret != Iterator.class && ret != Iterable.class) return null;
+			
+			Type generic = method.getGenericReturnType();
+			Type element = generic instanceof ParameterizedType?
+					((ParameterizedType) generic).getActualTypeArguments()[0] : null;
+			if (!(element instanceof Class)) {
+				throw new IllegalArgumentException("Cursor element type must be a class");
+			}
+			final Class<?> type = (Class<?>) element;
+			
+			if (Results.class.isAssignableFrom(type)) {
+				final SessionMethodHandler.Binder rows = (query.value().toUpperCase().startsWith("SELECT ")?
+						SELECT : INFERRED_SELECT).create(method, type, connection);
+				return new SessionMethodHandler.Binder() {
+					public SessionMethodHandler bind(Connection connection) throws SQLException {
+						final SessionMethodHandler handler = rows.bind(connection);
+						return new SessionMethodHandler() {
+							public Object execute(Object[] args) throws SQLException {
+								return ResultSetCursor.rows((Results) handler.execute(args));
+							}
+						};
+					}
+					
+					@Override public String toString() {
+						return CURSOR.toString() + ' ' + rows.toString();
+					}
+				};
+			}
+			
+			ParameterizedStatement ps = new ParameterizedStatement(query.value());
+			PreparedStatement validating = ps.prepare(connection, method.getParameterTypes());
+			try {
+				ResultSetMetaData meta = validating.getMetaData();
+				if (meta.getColumnCount() != 1 ||
+						!FieldType.wrapperType(type).isAssignableFrom(FieldType.forClassName(meta.getColumnClassName(1)))) {
+					throw new IllegalArgumentException("Illegal cursor element type");
+				}
+			} finally {
+				validating.close();
+			}
+			return super.queryMethod(connection, method, type, query, ps, new ResultSetWrapper<Object>() {
+				public Object wrap(ResultSet results) {
+					return ResultSetCursor.values(results, type);
+				}
+			});
+		}
+	},
 	SIMPLE_SELECT {
-		protected SessionMethodHandler.Binder create(Method method, Connection connection) throws SQLException {
+		protected SessionMethodHandler.Binder create(Method method, Class<?> ret, Connection connection)
+				throws SQLException {
 			final Query query = method.getAnnotation(Query.class);
-			Class<?> ret = method.getReturnType();
 			if (query == null || Results.class.isAssignableFrom(ret)) return null;
 			
 			ParameterizedStatement ps = new ParameterizedStatement(query.value());
-			ResultSetMetaData meta = ps.prepare(connection, method.getParameterTypes()).getMetaData();
-			if (meta.getColumnCount() != 1 || !ret.isAssignableFrom(FieldType.forClassName(meta.getColumnClassName(1)))) {
-				throw new IllegalArgumentException("Illegal query result type");
+			PreparedStatement validating = ps.prepare(connection, method.getParameterTypes());
+			try {
+				ResultSetMetaData meta = validating.getMetaData();
+				if (meta.getColumnCount() != 1 || !ret.isAssignableFrom(FieldType.forClassName(meta.getColumnClassName(1)))) {
+					throw new IllegalArgumentException("Illegal query result type");
+				}
+			} finally {
+				validating.close();
 			}
-			return super.queryMethod(method, query, ps, new ResultSetWrapper<Object>() {
+			SessionMethodHandler.Binder binder = super.queryMethod(connection, method, ret, query, ps,
+					new ResultSetWrapper<Object>() {
 				public Object wrap(ResultSet results) {
 					Finalizer handler = new Finalizer();
 					try {
@@ -59,63 +173,105 @@ public enum SessionMethodType {
 					}
 				}
 			});
+			return shared(method, binder);
 		}
 	},
 	SELECT {
 		@SuppressWarnings({ "unchecked", "rawtypes" })
-		protected SessionMethodHandler.Binder create(final Method method, Connection connection) throws SQLException {
+		protected SessionMethodHandler.Binder create(final Method method, Class<?> ret, Connection connection)
+				throws SQLException {
 			final Query query = method.getAnnotation(Query.class);
-			Class<?> ret = method.getReturnType();
 			if (query == null || !query.value().toUpperCase().startsWith("SELECT ")) return null;
 			
 			ParameterizedStatement ps = new ParameterizedStatement(query.value());
-			return super.queryMethod(method, query, ps, new SelectResultSetWrapper(
-					ret, ps.prepare(connection, method.getParameterTypes()).getMetaData()));
+			PreparedStatement validating = ps.prepare(connection, method.getParameterTypes());
+			try {
+				return super.queryMethod(connection, method, ret, query, ps,
+						new SelectResultSetWrapper(ret, validating.getMetaData()));
+			} finally {
+				validating.close();
+			}
 		}
 	},
 	INFERRED_SELECT {
 		@SuppressWarnings("unchecked")
-		protected SessionMethodHandler.Binder create(final Method method, Connection connection) throws SQLException {
+		protected SessionMethodHandler.Binder create(final Method method, Class<?> ret, Connection connection)
+				throws SQLException {
 			Query query = method.getAnnotation(Query.class);
-			Class<?> ret = method.getReturnType();
 			if (query == null || !Results.class.isAssignableFrom(ret)) return null;
 			
+			GeneratedResults generated = Generated.prototype(ret, GeneratedResults.class);
+			if (generated != null) {
+				ParameterizedStatement ps = new ParameterizedStatement(generated.getSQL(query.value()));
+				PreparedStatement validating = ps.prepare(connection, method.getParameterTypes());
+				try {
+					return super.queryMethod(connection, method, ret, query, ps, generated.wrapper(validating.getMetaData()));
+				} finally {
+					validating.close();
+				}
+			}
+			
 			PropertiesResultSetWrapper<?> proxy = PropertiesResultSetWrapper.forType((Class<Results>) ret);
 			ParameterizedStatement ps = new ParameterizedStatement(proxy.getSQL(query.value()));
-			return super.queryMethod(method, query, ps, 
-					proxy.validate(ps.prepare(connection, method.getParameterTypes()).getMetaData()));
+			PreparedStatement validating = ps.prepare(connection, method.getParameterTypes());
+			try {
+				return super.queryMethod(connection, method, ret, query, ps, proxy.validate(validating.getMetaData()));
+			} finally {
+				validating.close();
+			}
 		}
 	},
 	UPDATE {
-		protected SessionMethodHandler.Binder create(final Method method, Connection connection) throws SQLException {
+		protected SessionMethodHandler.Binder create(final Method method, final Class<?> ret, Connection connection)
+				throws SQLException {
 			final Update update = method.getAnnotation(Update.class);
 			if (update == null) return null;
 
-			final Class<?> ret = method.getReturnType();
 			if (ret != void.class && ret != int.class && !update.returnGeneratedKey()) {
 				throw new IllegalArgumentException("Illegal return type for Update");
 			}
 			
+			final Batch batch = method.getAnnotation(Batch.class);
+			if (batch != null && (update.value().length != 1 || ret != void.class)) {
+				throw new IllegalArgumentException("Batch method must have one command and return void");
+			}
+			if (batch != null && batch.size() < 1) {
+				throw new IllegalArgumentException("Illegal batch size: " + batch.size());
+			}
+			if (update.bulk()) {
+				if (batch != null) throw new IllegalArgumentException("Bulk Update cannot be a Batch method");
+				return super.bulkMethod(method, update, connection);
+			}
+			
 			final ParameterizedStatement[] ps = new ParameterizedStatement[update.value().length];
 			for (int i = 0; i < ps.length; i++) {
 				ps[i] = new ParameterizedStatement(update.value()[i]);
-				ps[i].prepare(connection, method.getParameterTypes());
+				ps[i].prepare(connection, method.getParameterTypes()).close();
 			}
 			final String name = name();
 			
+			final StatementCache.Preparer[] preparers = new StatementCache.Preparer[ps.length];
+			for (int i = 0; i < ps.length; i++) {
+				preparers[i] = updatePreparer(ps[i].text(), update);
+			}
+			
+			if (batch != null) return super.batchMethod(method, update, batch, ps[0], preparers[0]);
+			
 			return new SessionMethodHandler.Binder() {
 				public SessionMethodHandler bind(Connection connection) throws SQLException {
+					final StatementCache cache = StatementCache.of(connection);
 					final PreparedStatement[] stmts = new PreparedStatement[ps.length];
-					for (int i = 0; i < ps.length; i++) {
-						stmts[i] = connection.prepareStatement(ps[i].text(), update.returnGeneratedKey()?
-								Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
+					if (cache == null) {
+						for (int i = 0; i < ps.length; i++) {
+							stmts[i] = preparers[i].prepare(connection);
+						}
 					}
 					return new SessionMethodHandler() {
 						public Object execute(Object[] args) throws SQLException {
 							int rows = 0;
 							PreparedStatement last = null;
 							for (int i = 0; i < ps.length; i++) {
-								last = ps[i].setParameters(stmts[i], args);
+								last = ps[i].setParameters(cache == null? stmts[i] : cache.get(preparers[i]), args);
 								rows += last.executeUpdate();
 							}
 							if (update.returnGeneratedKey()) {
@@ -138,17 +294,45 @@ public enum SessionMethodType {
 		}
 	};
 
-	protected abstract SessionMethodHandler.Binder create(Method method, Connection connection) throws SQLException;
+	private static final Pattern ORDER_BY = Pattern.compile("\\s+ORDER\\s+BY\\s+[^()']*$", Pattern.CASE_INSENSITIVE);
 	
-	private SessionMethodHandler.Binder queryMethod(final Method method, final Query query,
-			final ParameterizedStatement ps, final ResultSetWrapper<?> wrapper) {
-		return new SessionMethodHandler.Binder() {
-			public SessionMethodHandler bind(Connection connection) throws SQLException {
-				final PreparedStatement stmt = connection.prepareStatement(
+	/**
+	 * Creates a binder for a method, if the method is of this type
+	 * @param method a session method
+	 * @param ret the type of value the binder's handlers return
+	 * @param connection a connection for validating the method's statements
+	 * @return a new binder, or null if the method is not of this type
+	 * @throws SQLException
+	 */
+	protected abstract SessionMethodHandler.Binder create(Method method, Class<?> ret, Connection connection)
+			throws SQLException;
+	
+	private SessionMethodHandler.Binder queryMethod(Connection connection, final Method method, final Class<?> ret,
+			final Query query, final ParameterizedStatement ps, final ResultSetWrapper<?> wrapper) throws SQLException {
+		Paged paged = method.getAnnotation(Paged.class);
+		if (paged != null) return pagedMethod(connection, method, ret, query, ps, wrapper, paged);
+		
+		final StatementCache.Preparer preparer = new StatementCache.Preparer() {
+			public PreparedStatement prepare(Connection connection) throws SQLException {
+				PreparedStatement stmt = connection.prepareStatement(
 						ps.text(), query.type(),
-						Results.Updatable.class.isAssignableFrom(method.getReturnType())?
+						Results.Updatable.class.isAssignableFrom(ret)?
 								ResultSet.CONCUR_UPDATABLE : ResultSet.CONCUR_READ_ONLY);
 				stmt.setFetchSize(query.fetchSize());
+				return stmt;
+			}
+		};
+		return new SessionMethodHandler.Binder() {
+			public SessionMethodHandler bind(Connection connection) throws SQLException {
+				final StatementCache cache = StatementCache.of(connection);
+				if (cache != null) {
+					return new SessionMethodHandler() {
+						public Object execute(Object[] args) throws SQLException {
+							return wrapper.wrap(ps.setParameters(cache.get(preparer), args).executeQuery());
+						}
+					};
+				}
+				final PreparedStatement stmt = preparer.prepare(connection);
 				return new SessionMethodHandler() {
 					public Object execute(Object[] args) throws SQLException {
 						return wrapper.wrap(ps.setParameters(stmt, args).executeQuery());
@@ -162,14 +346,332 @@ public enum SessionMethodType {
 		};
 	}
 	
+	private SessionMethodHandler.Binder pagedMethod(Connection connection, final Method method, Class<?> ret,
+			final Query query, final ParameterizedStatement ps, final ResultSetWrapper<?> wrapper, final Paged paged)
+			throws SQLException {
+		if (paged.size() < 1) throw new IllegalArgumentException("Illegal page size: " + paged.size());
+		if (query.type() != ResultSet.TYPE_FORWARD_ONLY || Results.Updatable.class.isAssignableFrom(ret)) {
+			throw new IllegalArgumentException("Paged query must be forward-only and read-only");
+		}
+		
+		String rows = "SELECT * FROM (" + ORDER_BY.matcher(ps.text()).replaceFirst("") + ") PAGED";
+		final StatementCache.Preparer[] preparers = {
+				pagePreparer(rows + " ORDER BY " + paged.key(), query, paged),
+				pagePreparer(rows + " WHERE " + paged.key() + " > ? ORDER BY " + paged.key(), query, paged)
+		};
+		preparers[1].prepare(connection).close();
+		final int keyParam = ps.indexes().size() + 1;
+		
+		return new SessionMethodHandler.Binder() {
+			public SessionMethodHandler bind(Connection connection) throws SQLException {
+				final StatementCache cache = StatementCache.of(connection);
+				final PreparedStatement[] stmts = cache != null? null : new PreparedStatement[] {
+						preparers[0].prepare(connection), preparers[1].prepare(connection)};
+				return new SessionMethodHandler() {
+					public Object execute(final Object[] args) throws SQLException {
+						return wrapper.wrap(PagedResultSet.open(new PagedResultSet.Pages() {
+							public ResultSet fetch(Object after) throws SQLException {
+								int page = after == null? 0 : 1;
+								PreparedStatement stmt = ps.setParameters(
+										cache == null? stmts[page] : cache.get(preparers[page]), args);
+								if (after != null) stmt.setObject(keyParam, after);
+								return stmt.executeQuery();
+							}
+						}, paged.key(), paged.size()));
+					}
+				};
+			}
+			
+			@Override public String toString() {
+				return SessionMethodType.this.toString() + " PAGED " + Name.of(method) + ": " + ps.toString();
+			}
+		};
+	}
+	
+	private static StatementCache.Preparer pagePreparer(final String text, final Query query, final Paged paged) {
+		return new StatementCache.Preparer() {
+			public PreparedStatement prepare(Connection connection) throws SQLException {
+				PreparedStatement stmt = connection.prepareStatement(
+						text, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				stmt.setFetchSize(query.fetchSize());
+				stmt.setMaxRows(paged.size());
+				return stmt;
+			}
+		};
+	}
+	
+	private SessionMethodHandler.Binder batchMethod(final Method method, final Update update, final Batch batch,
+			final ParameterizedStatement ps, final StatementCache.Preparer preparer) {
+		return new SessionMethodHandler.Binder() {
+			public SessionMethodHandler bind(Connection connection) throws SQLException {
+				final StatementCache cache = StatementCache.of(connection);
+				final PreparedStatement prepared = cache == null? preparer.prepare(connection) : null;
+				return new SessionMethodHandler.Batching() {
+					private PreparedStatement stmt = null;
+					private int queued = 0;
+					
+					public Object execute(Object[] args) throws SQLException {
+						if (stmt == null) stmt = cache == null? prepared : cache.get(preparer);
+						ps.setParameters(stmt, args).addBatch();
+						queued++;
+						return null;
+					}
+					
+					public boolean full() {
+						return queued >= batch.size();
+					}
+					
+					public int[] flush(List<Object> keys) throws SQLException {
+						if (stmt == null) return new int[0];
+						PreparedStatement executing = stmt;
+						stmt = null;
+						queued = 0;
+						
+						return executeBatch(executing, update.returnGeneratedKey()? keys : null);
+					}
+				};
+			}
+			
+			@Override public String toString() {
+				return SessionMethodType.this.toString() + " BATCH " + Name.of(method) + ": " + ps.toString();
+			}
+		};
+	}
+	
+	private SessionMethodHandler.Binder bulkMethod(final Method method, final Update update, Connection connection)
+			throws SQLException {
+		final Class<?> ret = method.getReturnType();
+		if (!BulkArguments.accepts(method)) {
+			throw new IllegalArgumentException("Bulk Update must have a single collection parameter");
+		}
+		if (update.value().length != 1) {
+			throw new IllegalArgumentException("Update with a collection parameter must have one command");
+		}
+		if (update.returnGeneratedKey()? !ret.isAssignableFrom(List.class) : ret != void.class && ret != int.class) {
+			throw new IllegalArgumentException("Illegal return type for Update with a collection parameter");
+		}
+		if (update.batchSize() < 1) {
+			throw new IllegalArgumentException("Illegal batch size: " + update.batchSize());
+		}
+		
+		final ParameterizedStatement ps = new ParameterizedStatement(update.value()[0]);
+		Class<?> element = BulkArguments.elementType(method);
+		if (element != null) {
+			ps.prepare(connection, element).close();
+		} else {
+			connection.prepareStatement(ps.text()).close();
+		}
+		final StatementCache.Preparer preparer = updatePreparer(ps.text(), update);
+		
+		return new SessionMethodHandler.Binder() {
+			public SessionMethodHandler bind(Connection connection) throws SQLException {
+				final StatementCache cache = StatementCache.of(connection);
+				final PreparedStatement prepared = cache == null? preparer.prepare(connection) : null;
+				return new SessionMethodHandler() {
+					public Object execute(Object[] args) throws SQLException {
+						PreparedStatement stmt = cache == null? prepared : cache.get(preparer);
+						List<Object> keys = update.returnGeneratedKey()? new ArrayList<Object>() : null;
+						int rows = 0, queued = 0;
+						for (Iterator<?> elements = BulkArguments.iterator(args[0]); elements.hasNext(); ) {
+							ps.setParameters(stmt, BulkArguments.tuple(elements.next())).addBatch();
+							if (++queued == update.batchSize()) {
+								rows += total(executeBatch(stmt, keys));
+								queued = 0;
+							}
+						}
+						if (queued > 0) rows += total(executeBatch(stmt, keys));
+						return keys != null? keys : rows;
+					}
+				};
+			}
+			
+			@Override public String toString() {
+				return SessionMethodType.this.toString() + " BULK " + Name.of(method) + ": " + ps.toString();
+			}
+		};
+	}
+	
+	private static StatementCache.Preparer updatePreparer(final String text, final Update update) {
+		return new StatementCache.Preparer() {
+			public PreparedStatement prepare(Connection connection) throws SQLException {
+				return connection.prepareStatement(text, update.returnGeneratedKey()?
+						Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
+			}
+		};
+	}
+	
+	/**
+	 * Executes the batched commands of a statement
+	 * @param stmt a statement with a batch of commands
+	 * @param keys a list for generated keys, or null if keys are not returned
+	 * @return the update counts
+	 * @throws SQLException
+	 */
+	private static int[] executeBatch(PreparedStatement stmt, List<Object> keys) throws SQLException {
+		int[] counts;
+		try {
+			counts = stmt.executeBatch();
+		} catch (SQLException e) {
+			stmt.clearBatch();
+			throw e;
+		}
+		if (keys != null) {
+			ResultSet generated = stmt.getGeneratedKeys();
+			try {
+				while (generated.next()) {
+					keys.add(generated.getObject(1));
+				}
+			} finally {
+				generated.close();
+			}
+		}
+		return counts;
+	}
+	
+	private static int total(int[] counts) {
+		int total = 0;
+		for (int count : counts) {
+			if (count > 0) total += count;
+		}
+		return total;
+	}
+	
 	@Override public String toString() {
 		return name();
 	}
 	
+	/**
+	 * Gets the tables that a method's statements read or write,
+	 * as declared by {@link Update#tables()} or {@link Cached#tables()}
+	 * or inferred from the statement text
+	 * @param method a session method
+	 * @return a set of upper-case table names
+	 * @see ParameterizedStatement#tables()
+	 */
+	public static Set<String> tables(Method method) {
+		Set<String> tables = new LinkedHashSet<String>();
+		Update update = method.getAnnotation(Update.class);
+		Cached cached = method.getAnnotation(Cached.class);
+		Query query = method.getAnnotation(Query.class);
+		
+		String[] declared = update != null? update.tables() : cached != null? cached.tables() : new String[0];
+		for (String table : declared) {
+			tables.add(table.toUpperCase());
+		}
+		if (!tables.isEmpty()) return tables;
+		
+		if (update != null) {
+			for (String command : update.value()) {
+				tables.addAll(new ParameterizedStatement(command).tables());
+			}
+		} else if (query != null) {
+			String sql = query.value();
+			if (!sql.toUpperCase().startsWith("SELECT ")) sql = "SELECT * FROM " + sql;
+			tables.addAll(new ParameterizedStatement(sql).tables());
+		}
+		return tables;
+	}
+	
+	/**
+	 * Gets the SQL executed by a session method, with its parameters replaced by {@code ?}
+	 * @param method a session method
+	 * @return the statement text, with multiple update commands separated by {@code ;},
+	 * or null if the method is not a query or update
+	 * @see ParameterizedStatement#text()
+	 */
+	public static String sql(Method method) {
+		Query query = method.getAnnotation(Query.class);
+		if (query != null) return new ParameterizedStatement(query.value()).text();
+		Update update = method.getAnnotation(Update.class);
+		if (update == null) return null;
+		StringBuilder sql = new StringBuilder();
+		for (String command : update.value()) {
+			if (sql.length() > 0) sql.append("; ");
+			sql.append(new ParameterizedStatement(command).text());
+		}
+		return sql.toString();
+	}
+	
+	/**
+	 * Wraps a binder in a {@link SessionMethodHandler.Shared} binder if its method is {@link Cached} or {@link SingleFlight}
+	 */
+	private static SessionMethodHandler.Binder shared(Method method, final SessionMethodHandler.Binder binder) {
+		Cached cached = method.getAnnotation(Cached.class);
+		boolean single = method.isAnnotationPresent(SingleFlight.class);
+		if (cached == null && !single) return binder;
+		final QueryCache cache = cached == null? null : new QueryCache(cached.ttl(), cached.maxEntries());
+		final InFlight inFlight = single? new InFlight() : null;
+		return new SessionMethodHandler.Shared() {
+			public SessionMethodHandler bind(Connection connection) throws SQLException {
+				return binder.bind(connection);
+			}
+			
+			public QueryCache cache() {
+				return cache;
+			}
+			
+			public InFlight inFlight() {
+				return inFlight;
+			}
+			
+			@Override public String toString() {
+				return binder.toString() + (cache != null? " CACHED" : "") + (inFlight != null? " SINGLE_FLIGHT" : "");
+			}
+		};
+	}
+	
+	/**
+	 * Creates a binder that validates a method against the first connection it is bound to.
+	 * The binder is {@link SessionMethodHandler.Shared} or {@link SessionMethodHandler.Asynchronous}
+	 * if the method's binder would be
+	 * @param method a session method
+	 * @return a new binder
+	 * @see Validation#LAZY
+	 */
+	public static SessionMethodHandler.Binder lazy(final Method method) {
+		final SessionMethodHandler.Binder deferred = new SessionMethodHandler.Binder() {
+			private volatile SessionMethodHandler.Binder validated = null;
+			
+			public SessionMethodHandler bind(Connection connection) throws SQLException {
+				SessionMethodHandler.Binder binder = validated;
+				if (binder == null) {
+					synchronized (this) {
+						if (validated == null) validated = forMethod(method, connection);
+						binder = validated;
+					}
+				}
+				return binder.bind(connection);
+			}
+			
+			@Override public String toString() {
+				SessionMethodHandler.Binder binder = validated;
+				return binder != null? binder.toString() : "LAZY " + Name.of(method);
+			}
+		};
+		if (method.getReturnType() != Future.class) return shared(method, deferred);
+		return new SessionMethodHandler.Asynchronous() {
+			public SessionMethodHandler bind(Connection connection) throws SQLException {
+				return deferred.bind(connection);
+			}
+			
+			@Override public String toString() {
+				return deferred.toString();
+			}
+		};
+	}
+	
 	public static SessionMethodHandler.Binder forMethod(Method method, Connection connection) throws SQLException {
 		for (SessionMethodType gen : values()) {
 			try {
-				SessionMethodHandler.Binder dm = gen.create(method, connection);
+				SessionMethodHandler.Binder dm = gen.create(method, method.getReturnType(), connection);
+				if (dm != null && !(dm instanceof SessionMethodHandler.Shared)) {
+					if (method.isAnnotationPresent(Cached.class)) {
+						throw new IllegalArgumentException("Only queries that return a single value can be cached");
+					}
+					if (method.isAnnotationPresent(SingleFlight.class)) {
+						throw new IllegalArgumentException("Only queries that return a single value can be shared");
+					}
+				}
 				if (dm != null) return dm;
 			} catch (RuntimeException e) {
 				throw new RuntimeException(gen.name() + ' ' + Name.of(method) + ": " + e.getMessage(), e);
@@ -0,0 +1,256 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.copalis.sql.Session.Cached;
+import org.copalis.sql.Session.Update;
+import org.copalis.sql.common.Name;
+
+/**
+ * A dispatch table for the user-defined methods of a {@link org.copalis.sql.Session} interface.
+ * <p>
+ * Each method is assigned a slot, so that a session can keep its bound handlers in an array.
+ * Slots are resolved by {@link Method} identity; the {@link Method} objects passed to a
+ * dynamic proxy are constants of the proxy class, so after the first call to each method
+ * resolution does not need {@link Method#equals(Object)}
+ *
+ * @author gilesjb
+ */
+public class SessionMethods {
+
+	/**
+	 * The slot of a method that has no {@link SessionMethodHandler.Binder}
+	 */
+	public static final int NONE = -1;
+
+	private final Method[] methods;
+	private final SessionMethodHandler.Binder[] binders;
+	private final Map<Method, Integer> slots;
+	private final String[][] writes;
+	private final String[][] reads;
+	private final Executor executor;
+	private final TableInvalidation invalidation;
+	private final MethodListener listener;
+
+	private volatile Map<Method, Integer> resolved = new IdentityHashMap<Method, Integer>();
+
+	public SessionMethods(Map<Method, SessionMethodHandler.Binder> binders) {
+		this(binders, binders.keySet().toArray(new Method[binders.size()]));
+	}
+	
+	private SessionMethods(Map<Method, SessionMethodHandler.Binder> binders, Method[] methods) {
+		this.methods = methods;
+		this.binders = new SessionMethodHandler.Binder[methods.length];
+		this.slots = new HashMap<Method, Integer>();
+		this.writes = new String[methods.length][];
+		this.reads = new String[methods.length][];
+		this.executor = null;
+		this.invalidation = null;
+		this.listener = null;
+		for (int i = 0; i < methods.length; i++) {
+			this.binders[i] = binders.get(methods[i]);
+			slots.put(methods[i], i);
+			if (methods[i].isAnnotationPresent(Update.class)) {
+				Set<String> tables = SessionMethodType.tables(methods[i]);
+				if (!tables.isEmpty()) writes[i] = tables.toArray(new String[tables.size()]);
+			} else if (methods[i].isAnnotationPresent(Cached.class)) {
+				Set<String> tables = SessionMethodType.tables(methods[i]);
+				reads[i] = tables.toArray(new String[tables.size()]);
+			}
+		}
+	}
+	
+	private SessionMethods(SessionMethods methods,
+			Executor executor, TableInvalidation invalidation, MethodListener listener) {
+		this.methods = methods.methods;
+		this.binders = methods.binders;
+		this.slots = methods.slots;
+		this.writes = methods.writes;
+		this.reads = methods.reads;
+		this.executor = executor;
+		this.invalidation = invalidation;
+		this.listener = listener;
+	}
+	
+	/**
+	 * Creates a copy of this table whose asynchronous methods run on an executor
+	 * @param executor an {@link Executor}
+	 * @return a new {@link SessionMethods} with the same slots
+	 */
+	public SessionMethods using(Executor executor) {
+		return new SessionMethods(this, executor, invalidation, listener);
+	}
+	
+	/**
+	 * Creates a copy of this table whose update methods invalidate cached results
+	 * @param invalidation the {@link TableInvalidation} of the connection source
+	 * @return a new {@link SessionMethods} with the same slots
+	 */
+	public SessionMethods invalidating(TableInvalidation invalidation) {
+		return new SessionMethods(this, executor, invalidation, listener);
+	}
+	
+	/**
+	 * Creates a copy of this table whose method executions are reported to a listener,
+	 * in addition to any listener this table already has
+	 * @param listener a {@link MethodListener}
+	 * @return a new {@link SessionMethods} with the same slots
+	 */
+	public SessionMethods listening(MethodListener listener) {
+		return new SessionMethods(this, executor, invalidation,
+				this.listener == null? listener : new Listeners(this.listener, listener));
+	}
+	
+	/**
+	 * Forwards events to two listeners, and phases to those that are {@link PhaseListener}s
+	 */
+	private static class Listeners implements PhaseListener {
+		private final MethodListener first, second;
+		
+		Listeners(MethodListener first, MethodListener second) {
+			this.first = first;
+			this.second = second;
+		}
+		
+		public void executed(Method method, Object[] args, long nanos, Throwable failure) {
+			first.executed(method, args, nanos, failure);
+			second.executed(method, args, nanos, failure);
+		}
+		
+		public void fetched(Method method, int rows) {
+			first.fetched(method, rows);
+			second.fetched(method, rows);
+		}
+		
+		public void prepared(Method method, long nanos) {
+			if (first instanceof PhaseListener) ((PhaseListener) first).prepared(method, nanos);
+			if (second instanceof PhaseListener) ((PhaseListener) second).prepared(method, nanos);
+		}
+		
+		public void firstRow(Method method, long nanos) {
+			if (first instanceof PhaseListener) ((PhaseListener) first).firstRow(method, nanos);
+			if (second instanceof PhaseListener) ((PhaseListener) second).firstRow(method, nanos);
+		}
+		
+		public void closed(Method method, Object[] args, int rows, long nanos) {
+			if (first instanceof PhaseListener) ((PhaseListener) first).closed(method, args, rows, nanos);
+			if (second instanceof PhaseListener) ((PhaseListener) second).closed(method, args, rows, nanos);
+		}
+	}
+	
+	/**
+	 * @return the {@link MethodListener} of this table, or null if there is none
+	 */
+	public MethodListener listener() {
+		return listener;
+	}
+	
+	/**
+	 * @return the {@link TableInvalidation} notified of updates, or null if there is none
+	 */
+	public TableInvalidation invalidation() {
+		return invalidation;
+	}
+	
+	/**
+	 * Gets the tables that a method writes to
+	 * @param slot a method slot
+	 * @return the upper-case table names, or null if the method does not write to known tables
+	 */
+	public String[] writes(int slot) {
+		return writes[slot];
+	}
+	
+	/**
+	 * Gets the tables that a cached method reads from
+	 * @param slot a method slot
+	 * @return the upper-case table names, or null if the method is not cached
+	 */
+	public String[] reads(int slot) {
+		return reads[slot];
+	}
+	
+	/**
+	 * @return the executor for {@link SessionMethodHandler.Asynchronous asynchronous} methods
+	 */
+	public Executor executor() {
+		return executor != null? executor : SerialExecutor.shared();
+	}
+	
+	/**
+	 * Creates a dispatch table with slots in a predetermined order
+	 * @param binders the binders for each method
+	 * @param signatures the {@link Name#signature(Method) signatures} of the methods, in slot order
+	 * @return a new {@link SessionMethods}, or null if the signatures do not match the methods
+	 */
+	public static SessionMethods ordered(Map<Method, SessionMethodHandler.Binder> binders, String[] signatures) {
+		if (signatures.length != binders.size()) return null;
+		
+		Map<String, Method> bySignature = new HashMap<String, Method>();
+		for (Method method : binders.keySet()) {
+			bySignature.put(Name.signature(method), method);
+		}
+		Method[] methods = new Method[signatures.length];
+		for (int i = 0; i < methods.length; i++) {
+			methods[i] = bySignature.get(signatures[i]);
+			if (methods[i] == null) return null;
+		}
+		return new SessionMethods(binders, methods);
+	}
+
+	/**
+	 * Gets the slot of a method
+	 * @param method a method of the session interface
+	 * @return the slot index, or {@link #NONE} if it is not a user-defined method
+	 */
+	public int slot(Method method) {
+		Integer slot = resolved.get(method);
+		if (slot == null) {
+			slot = slots.get(method);
+			if (slot == null) slot = NONE;
+			synchronized (this) {
+				Map<Method, Integer> copy = new IdentityHashMap<Method, Integer>(resolved);
+				copy.put(method, slot);
+				resolved = copy;
+			}
+		}
+		return slot;
+	}
+
+	public int size() {
+		return methods.length;
+	}
+
+	public Method method(int slot) {
+		return methods[slot];
+	}
+
+	public SessionMethodHandler.Binder binder(int slot) {
+		return binders[slot];
+	}
+
+	@Override public String toString() {
+		return Arrays.asList(binders).toString();
+	}
+}
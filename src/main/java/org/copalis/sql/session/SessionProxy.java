@@ -16,26 +16,18 @@
 package org.copalis.sql.session;
 
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
-import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
 
-import org.copalis.sql.DataException;
+import org.copalis.sql.BatchResults;
 import org.copalis.sql.Session;
-import org.copalis.sql.common.Name;
 
 public class SessionProxy implements InvocationHandler, Session {
-	private final Connection connection;
-	private final Map<Method, SessionMethodHandler.Binder> methods;
-
-	private final Map<Method, SessionMethodHandler> handlers = 
-			new HashMap<Method, SessionMethodHandler>();
+	private final SessionBinding binding;
 	
-	public static <C extends Session> C proxy(
-			Class<C> type, Map<Method, SessionMethodHandler.Binder> methods, Connection connection) {
+	public static <C extends Session> C proxy(Class<C> type, SessionMethods methods, Connection connection) {
 		return type.cast(Proxy.newProxyInstance(
 				SessionProxy.class.getClassLoader(), new Class<?>[] {type}, new SessionProxy(
 						connection, methods)));
@@ -45,41 +37,39 @@ public class SessionProxy implements InvocationHandler, Session {
 		this(connection, null);
 	}
 	
-	public SessionProxy(Connection connection, Map<Method, SessionMethodHandler.Binder> methods) {
-		this.connection = connection;
-		this.methods = methods;
+	public SessionProxy(Connection connection, SessionMethods methods) {
+		this.binding = new SessionBinding(connection, methods);
 	}
 	
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-		if (method.getDeclaringClass().isAssignableFrom(Session.class)) {
-			return method.invoke(this, args);
-		} else {
-			SessionMethodHandler handler = handlers.get(method);
+		int slot = binding.methods().slot(method);
+		if (slot == SessionMethods.NONE) {
 			try {
-				if (handler == null) {
-					handler = methods.get(method).bind(connection);
-					handlers.put(method, handler);
-				}
-				return handler.execute(args);
-			} catch (SQLException e) {
-				throw DataException.wrap("In method: " + Name.of(method), e);
+				return method.invoke(this, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
 			}
 		}
+		return binding.execute(slot, args);
+	}
+	
+	SessionBinding binding() {
+		return binding;
 	}
 	
 	public Connection connection() {
-		return connection;
+		return binding.connection();
+	}
+	
+	public BatchResults flush() {
+		return binding.flush();
 	}
 	
 	public void close() {
-		try {
-			connection.close();
-		} catch (SQLException e) {
-			throw DataException.wrap(e);
-		}
+		binding.close();
 	}
 	
 	@Override public String toString() {
-		return methods.values().toString();
+		return binding.toString();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.copalis.sql.DataException;
+import org.copalis.sql.Session;
+
+/**
+ * A process-wide registry of validated {@link ConnectionWrapper.Generic}s,
+ * keyed by {@link Connector} and {@link Session} interface.
+ * <p>
+ * Each interface is reflected over and validated against a connector only once;
+ * concurrent requests for the same interface wait for the first validation to complete.
+ * Connectors are held weakly, so discarded connectors do not accumulate in the registry
+ *
+ * @author gilesjb
+ */
+public class SessionRegistry {
+
+	private static final Map<Connector, ConcurrentMap<Class<?>, Future<ConnectionWrapper.Generic<?>>>> registry =
+			Collections.synchronizedMap(
+					new WeakHashMap<Connector, ConcurrentMap<Class<?>, Future<ConnectionWrapper.Generic<?>>>>());
+
+	private static final Map<Connector, TableInvalidation> invalidations =
+			Collections.synchronizedMap(new WeakHashMap<Connector, TableInvalidation>());
+
+	/**
+	 * Gets the validated wrapper for a {@link Session} interface,
+	 * creating it with a connection from the connector if necessary
+	 *
+	 * @param type a {@link Session} interface
+	 * @param connector the source of connections the interface will wrap
+	 * @return a {@link ConnectionWrapper} for the interface
+	 * @throws DataException if validation could not connect to the database
+	 */
+	public static <T extends Session> ConnectionWrapper.Generic<T> wrapper(Class<T> type, Connector connector)
+			throws DataException {
+		return wrapper(type, connector, Validation.EAGER);
+	}
+
+	/**
+	 * Gets the validated wrapper for a {@link Session} interface,
+	 * creating it with a validation policy if necessary.
+	 * An interface that has already been validated with the connector is reused, whatever its policy
+	 *
+	 * @param type a {@link Session} interface
+	 * @param connector the source of connections the interface will wrap
+	 * @param validation when the interface's statements are validated
+	 * @return a {@link ConnectionWrapper} for the interface
+	 * @throws DataException if validation could not connect to the database
+	 */
+	public static <T extends Session> ConnectionWrapper.Generic<T> wrapper(
+			final Class<T> type, final Connector connector, final Validation validation) throws DataException {
+		return wrapper(type, connector, new Callable<Map<Method, SessionMethodHandler.Binder>>() {
+			public Map<Method, SessionMethodHandler.Binder> call() throws SQLException {
+				return validation.binders(Validation.methods(type), connector);
+			}
+		});
+	}
+
+	/**
+	 * Gets the validated wrapper for a {@link Session} interface,
+	 * creating it with the metadata in a snapshot if possible.
+	 * An interface that has already been validated with the connector is reused
+	 *
+	 * @param type a {@link Session} interface
+	 * @param connector the source of connections the interface will wrap
+	 * @param snapshot the {@link MetadataSnapshot} to validate the interface with
+	 * @return a {@link ConnectionWrapper} for the interface
+	 * @throws DataException if validation could not connect to the database
+	 */
+	public static <T extends Session> ConnectionWrapper.Generic<T> wrapper(
+			final Class<T> type, final Connector connector, final MetadataSnapshot snapshot) throws DataException {
+		return wrapper(type, connector, new Callable<Map<Method, SessionMethodHandler.Binder>>() {
+			public Map<Method, SessionMethodHandler.Binder> call() throws SQLException {
+				return snapshot.binders(Validation.methods(type), connector);
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends Session> ConnectionWrapper.Generic<T> wrapper(final Class<T> type,
+			final Connector connector, final Callable<Map<Method, SessionMethodHandler.Binder>> binders)
+			throws DataException {
+		ConcurrentMap<Class<?>, Future<ConnectionWrapper.Generic<?>>> wrappers = wrappers(connector);
+
+		Future<ConnectionWrapper.Generic<?>> future = wrappers.get(type);
+		FutureTask<ConnectionWrapper.Generic<?>> task = null;
+		if (future == null) {
+			task = new FutureTask<ConnectionWrapper.Generic<?>>(
+					new Callable<ConnectionWrapper.Generic<?>>() {
+						public ConnectionWrapper.Generic<?> call() throws Exception {
+							return new ConnectionWrapper.Generic<T>(type, binders.call(), invalidation(connector));
+						}
+					});
+			future = wrappers.putIfAbsent(type, task);
+			if (future == null) {
+				future = task;
+				task.run();
+			}
+		}
+
+		try {
+			ConnectionWrapper.Generic<?> wrapper = future.get();
+			if (future == task) wrappers.replace(type, task, new Validated(wrapper));
+			return (ConnectionWrapper.Generic<T>) wrapper;
+		} catch (ExecutionException e) {
+			wrappers.remove(type, future);
+			throw rethrow(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Discards all validated wrappers created with a connector
+	 *
+	 * @param connector a {@link Connector}
+	 */
+	public static void clear(Connector connector) {
+		registry.remove(connector);
+		invalidations.remove(connector);
+	}
+
+	private static TableInvalidation invalidation(Connector connector) {
+		synchronized (invalidations) {
+			TableInvalidation invalidation = invalidations.get(connector);
+			if (invalidation == null) {
+				invalidation = new TableInvalidation();
+				invalidations.put(connector, invalidation);
+			}
+			return invalidation;
+		}
+	}
+
+	private static ConcurrentMap<Class<?>, Future<ConnectionWrapper.Generic<?>>> wrappers(Connector connector) {
+		synchronized (registry) {
+			ConcurrentMap<Class<?>, Future<ConnectionWrapper.Generic<?>>> wrappers = registry.get(connector);
+			if (wrappers == null) {
+				wrappers = new ConcurrentHashMap<Class<?>, Future<ConnectionWrapper.Generic<?>>>();
+				registry.put(connector, wrappers);
+			}
+			return wrappers;
+		}
+	}
+
+	/**
+	 * A validated wrapper, which replaces the task that validated it so that the registry
+	 * does not keep the task's {@link Callable}, and with it the connector, reachable
+	 */
+	private static class Validated implements Future<ConnectionWrapper.Generic<?>> {
+		private final ConnectionWrapper.Generic<?> wrapper;
+
+		Validated(ConnectionWrapper.Generic<?> wrapper) {
+			this.wrapper = wrapper;
+		}
+
+		public ConnectionWrapper.Generic<?> get() {
+			return wrapper;
+		}
+
+		public ConnectionWrapper.Generic<?> get(long timeout, TimeUnit unit) {
+			return wrapper;
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		public boolean isCancelled() {
+			return false;
+		}
+
+		public boolean isDone() {
+			return true;
+		}
+	}
+
+	private static RuntimeException rethrow(Throwable cause) {
+		if (cause instanceof SQLException) return DataException.wrap((SQLException) cause);
+		if (cause instanceof RuntimeException) return (RuntimeException) cause;
+		if (cause instanceof Error) throw (Error) cause;
+		return new RuntimeException(cause);
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.copalis.sql.common.Name;
+
+/**
+ * A {@link PhaseListener} that logs the session method calls that take longer than a threshold,
+ * with their SQL, arguments, elapsed time and row count.
+ * <p>
+ * A call that returns {@link org.copalis.sql.Results} or a {@link org.copalis.sql.Cursor}
+ * is timed until its rows are exhausted or closed.
+ * Slow calls are logged to the {@code org.copalis.sql.session.SlowQueryLog} {@link Logger}
+ * at {@link Level#WARNING}, and the most recent are retained in memory.
+ * <p>
+ * Argument values are passed through a {@link Redactor} before they are logged,
+ * and a sampling rate limits the cost of logging when many calls are slow
+ *
+ * @author gilesjb
+ */
+public class SlowQueryLog implements PhaseListener {
+
+	private static final Logger LOGGER = Logger.getLogger(SlowQueryLog.class.getName());
+	private static final int RETAINED = 100, MAX_LENGTH = 100;
+
+	/**
+	 * Replaces argument values that must not be logged
+	 */
+	public interface Redactor {
+
+		/**
+		 * @param method the session interface method
+		 * @param index the zero-based index of the argument
+		 * @param value the argument value, which may be null
+		 * @return the value to log
+		 */
+		Object redact(Method method, int index, Object value);
+	}
+
+	/**
+	 * Logs argument values unchanged
+	 */
+	public static final Redactor NONE = new Redactor() {
+		public Object redact(Method method, int index, Object value) {
+			return value;
+		}
+	};
+
+	/**
+	 * Replaces every argument value with {@code ***}
+	 */
+	public static final Redactor ALL = new Redactor() {
+		public Object redact(Method method, int index, Object value) {
+			return "***";
+		}
+	};
+
+	/**
+	 * A slow call
+	 */
+	public static class Entry {
+		public final long time, nanos;
+		public final String thread, method, sql;
+		public final List<String> args;
+		public final int rows;
+		public final Throwable failure;
+
+		Entry(Method method, List<String> args, long nanos, int rows, Throwable failure) {
+			this.time = System.currentTimeMillis();
+			this.thread = Thread.currentThread().getName();
+			this.method = Name.of(method);
+			this.sql = SessionMethodType.sql(method);
+			this.args = args;
+			this.nanos = nanos;
+			this.rows = rows;
+			this.failure = failure;
+		}
+
+		@Override public String toString() {
+			return String.format("Slow call %s took %dms%s%s [%s] %s", method, nanos / 1000000,
+					rows < 0? "" : " for " + rows + " rows", failure == null? "" : " and failed: " + failure,
+					thread, sql) + (args.isEmpty()? "" : " with " + args);
+		}
+	}
+
+	private final long thresholdNanos;
+	private final double rate;
+	private final Redactor redactor;
+	private final Random random = new Random();
+	private final AtomicLong slow = new AtomicLong();
+	private final LinkedList<Entry> entries = new LinkedList<Entry>();
+
+	/**
+	 * Creates a log of the calls that take at least a threshold time
+	 * @param thresholdMillis the threshold in milliseconds
+	 */
+	public SlowQueryLog(long thresholdMillis) {
+		this(thresholdMillis * 1000000, 1.0, NONE);
+	}
+
+	private SlowQueryLog(long thresholdNanos, double rate, Redactor redactor) {
+		if (thresholdNanos < 0) throw new IllegalArgumentException("Illegal threshold: " + thresholdNanos);
+		if (!(rate > 0 && rate <= 1)) throw new IllegalArgumentException("Illegal sampling rate: " + rate);
+		this.thresholdNanos = thresholdNanos;
+		this.rate = rate;
+		this.redactor = redactor;
+	}
+
+	/**
+	 * Creates a log that records a random sample of the slow calls
+	 * @param rate the fraction of slow calls to record, greater than 0 and at most 1
+	 * @return a new {@link SlowQueryLog}
+	 */
+	public SlowQueryLog sampling(double rate) {
+		return new SlowQueryLog(thresholdNanos, rate, redactor);
+	}
+
+	/**
+	 * Creates a log that redacts argument values
+	 * @param redactor a {@link Redactor}
+	 * @return a new {@link SlowQueryLog}
+	 */
+	public SlowQueryLog redacting(Redactor redactor) {
+		return new SlowQueryLog(thresholdNanos, rate, redactor);
+	}
+
+	public void executed(Method method, Object[] args, long nanos, Throwable failure) {
+		if (failure != null) log(method, args, nanos, -1, failure);
+	}
+
+	public void closed(Method method, Object[] args, int rows, long nanos) {
+		log(method, args, nanos, rows, null);
+	}
+
+	public void fetched(Method method, int rows) {
+		// logged when the call is closed
+	}
+
+	public void prepared(Method method, long nanos) {
+	}
+
+	public void firstRow(Method method, long nanos) {
+	}
+
+	private void log(Method method, Object[] args, long nanos, int rows, Throwable failure) {
+		if (nanos < thresholdNanos) return;
+		slow.incrementAndGet();
+		if (rate < 1 && random.nextDouble() >= rate) return;
+
+		Entry entry = new Entry(method, format(method, args), nanos, rows, failure);
+		synchronized (entries) {
+			entries.addLast(entry);
+			if (entries.size() > RETAINED) entries.removeFirst();
+		}
+		if (LOGGER.isLoggable(Level.WARNING)) LOGGER.warning(entry.toString());
+	}
+
+	private List<String> format(Method method, Object[] args) {
+		if (args == null) return Collections.emptyList();
+		List<String> formatted = new ArrayList<String>(args.length);
+		for (int i = 0; i < args.length; i++) {
+			formatted.add(format(redactor.redact(method, i, args[i])));
+		}
+		return formatted;
+	}
+
+	private static String format(Object value) {
+		String text;
+		if (value instanceof byte[]) {
+			text = "byte[" + ((byte[]) value).length + "]";
+		} else if (value instanceof Object[]) {
+			text = Arrays.deepToString((Object[]) value);
+		} else {
+			text = String.valueOf(value);
+		}
+		return text.length() > MAX_LENGTH? text.substring(0, MAX_LENGTH) + "..." : text;
+	}
+
+	/**
+	 * @return the number of slow calls, including those that were not sampled
+	 */
+	public long slow() {
+		return slow.get();
+	}
+
+	/**
+	 * @return the most recent slow calls that were sampled, oldest first
+	 */
+	public List<Entry> entries() {
+		synchronized (entries) {
+			return new ArrayList<Entry>(entries);
+		}
+	}
+
+	@Override public String toString() {
+		return "SlowQueryLog: " + slow() + " slow calls over " + thresholdNanos / 1000000 + "ms";
+	}
+}
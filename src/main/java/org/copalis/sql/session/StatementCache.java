@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.copalis.sql.common.Finalizer;
+
+/**
+ * A least-recently-used cache of the {@link PreparedStatement}s of a physical connection,
+ * so that sessions which reuse a pooled connection do not prepare their statements again.
+ * <p>
+ * Statements are keyed by the identity of their {@link Preparer}, which each session method
+ * creates once when its interface is validated; a statement is therefore never shared
+ * between different methods.
+ * Evicting a statement closes it, along with any results it returned,
+ * so the cache should be larger than the number of results a session keeps open at once.
+ * A cache is used by one borrower of its connection at a time, and is not synchronized
+ *
+ * @author gilesjb
+ */
+public class StatementCache {
+
+	/**
+	 * Prepares a statement on a connection
+	 */
+	public interface Preparer {
+		PreparedStatement prepare(Connection connection) throws SQLException;
+	}
+
+	/**
+	 * A {@link Connection} that has a {@link StatementCache}
+	 */
+	public interface Owner {
+		StatementCache statementCache();
+	}
+
+	private final Connection connection;
+	private final Map<Preparer, PreparedStatement> statements;
+	private volatile long hits, misses;
+
+	/**
+	 * @param connection the physical connection on which statements are prepared
+	 * @param maxSize the maximum number of open statements
+	 */
+	public StatementCache(Connection connection, final int maxSize) {
+		this.connection = connection;
+		this.statements = new LinkedHashMap<Preparer, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override protected boolean removeEldestEntry(Map.Entry<Preparer, PreparedStatement> eldest) {
+				if (size() <= maxSize) return false;
+				new Finalizer().close(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Gets the statement cache of a connection
+	 * @param connection a {@link Connection}
+	 * @return its {@link StatementCache}, or null if it does not have one
+	 */
+	public static StatementCache of(Connection connection) {
+		return connection instanceof Owner? ((Owner) connection).statementCache() : null;
+	}
+
+	/**
+	 * Gets a cached statement, preparing it if it is not in the cache
+	 * @param preparer the statement's {@link Preparer}
+	 * @return an open {@link PreparedStatement}
+	 * @throws SQLException
+	 */
+	public PreparedStatement get(Preparer preparer) throws SQLException {
+		PreparedStatement statement = statements.get(preparer);
+		if (statement != null) {
+			hits++;
+			return statement;
+		}
+		misses++;
+		statement = preparer.prepare(connection);
+		statements.put(preparer, statement);
+		return statement;
+	}
+
+	/**
+	 * @return the number of times a statement was found in the cache
+	 */
+	public long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of times a statement had to be prepared
+	 */
+	public long misses() {
+		return misses;
+	}
+
+	public int size() {
+		return statements.size();
+	}
+
+	@Override public String toString() {
+		return "StatementCache: " + size() + " statements, " + hits + " hits, " + misses + " misses";
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the {@link QueryCache}s that depend on each table of a database,
+ * so that updates to a table can evict the cached results that read it.
+ * <p>
+ * There is one instance for each {@link Connector},
+ * shared by all the session interfaces registered with it.
+ * Each table has a generation that is incremented whenever it is invalidated,
+ * so that a result read before an invalidation is not cached after it
+ *
+ * @author gilesjb
+ */
+public class TableInvalidation {
+	private final ConcurrentMap<String, List<QueryCache>> caches = new ConcurrentHashMap<String, List<QueryCache>>();
+	private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+	
+	/**
+	 * Registers a cache of results that read from tables
+	 * @param tables the upper-case names of the tables
+	 * @param cache a {@link QueryCache}
+	 */
+	public void register(Collection<String> tables, QueryCache cache) {
+		for (String table : tables) {
+			List<QueryCache> dependents = caches.get(table);
+			if (dependents == null) {
+				caches.putIfAbsent(table, new CopyOnWriteArrayList<QueryCache>());
+				dependents = caches.get(table);
+			}
+			dependents.add(cache);
+		}
+	}
+	
+	/**
+	 * Gets the combined generation of tables, which changes whenever any of them is invalidated
+	 * @param tables the upper-case names of the tables
+	 * @return the sum of the tables' generations
+	 */
+	public long generation(String[] tables) {
+		long generation = 0;
+		for (String table : tables) {
+			AtomicLong count = generations.get(table);
+			if (count != null) generation += count.get();
+		}
+		return generation;
+	}
+	
+	/**
+	 * Increments the generations of tables, then clears the caches of results that read from them
+	 * @param tables the upper-case names of updated tables
+	 */
+	public void invalidate(String[] tables) {
+		for (String table : tables) {
+			AtomicLong count = generations.get(table);
+			if (count == null) {
+				generations.putIfAbsent(table, new AtomicLong());
+				count = generations.get(table);
+			}
+			count.incrementAndGet();
+		}
+		for (String table : tables) {
+			List<QueryCache> dependents = caches.get(table);
+			if (dependents != null) {
+				for (QueryCache cache : dependents) {
+					cache.clear();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.copalis.sql.Session;
+import org.copalis.sql.common.Finalizer;
+
+/**
+ * When the statements of a {@link Session} interface's methods are prepared
+ * and validated against the database
+ *
+ * @author gilesjb
+ */
+public abstract class Validation {
+
+	/**
+	 * The number of connections used by {@link #PARALLEL} validation
+	 */
+	public static final int PARALLELISM = 4;
+	
+	/**
+	 * Every method is validated with one connection when the interface is first used with a connection source
+	 */
+	public static final Validation EAGER = new Validation() {
+		Map<Method, SessionMethodHandler.Binder> binders(Collection<Method> methods, Connector connector)
+				throws SQLException {
+			Connection connection = connector.connect();
+			Finalizer handler = new Finalizer();
+			try {
+				return validate(methods, connection);
+			} catch (Exception e) {
+				throw handler.wrap(e);
+			} finally {
+				handler.close(connection);
+			}
+		}
+	};
+	
+	/**
+	 * Each method is validated with its session's connection the first time it is called.
+	 * The interface is available without connecting to the database,
+	 * but an invalid method is not reported until it is called
+	 */
+	public static final Validation LAZY = new Validation() {
+		Map<Method, SessionMethodHandler.Binder> binders(Collection<Method> methods, Connector connector) {
+			Map<Method, SessionMethodHandler.Binder> binders = new HashMap<Method, SessionMethodHandler.Binder>();
+			for (Method method : methods) {
+				binders.put(method, SessionMethodType.lazy(method));
+			}
+			return binders;
+		}
+	};
+	
+	/**
+	 * Every method is validated when the interface is first used with a connection source,
+	 * divided between up to {@link #PARALLELISM} connections that validate concurrently
+	 * 
+	 * @see #parallel(int)
+	 */
+	public static final Validation PARALLEL = parallel(PARALLELISM);
+	
+	private Validation() {}
+	
+	/**
+	 * Every method is validated when the interface is first used with a connection source,
+	 * divided between connections that validate concurrently.
+	 * The number of connections should leave room in the connection source,
+	 * such as a {@link ConnectionPool}, for the connections the application is using
+	 * 
+	 * @param connections the maximum number of connections used at once
+	 * @return a parallel {@link Validation}
+	 */
+	public static Validation parallel(final int connections) {
+		if (connections < 1) throw new IllegalArgumentException("Invalid number of connections: " + connections);
+		
+		return new Validation() {
+			Map<Method, SessionMethodHandler.Binder> binders(Collection<Method> methods, final Connector connector)
+					throws SQLException {
+				int threads = Math.min(connections, methods.size());
+				if (threads < 2) return EAGER.binders(methods, connector);
+			
+				final Queue<Method> queue = new ConcurrentLinkedQueue<Method>(methods);
+				final Map<Method, SessionMethodHandler.Binder> binders =
+						new ConcurrentHashMap<Method, SessionMethodHandler.Binder>();
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+				for (int i = 0; i < threads; i++) {
+					tasks.add(new Callable<Void>() {
+						public Void call() throws SQLException {
+							Connection connection = connector.connect();
+							Finalizer handler = new Finalizer();
+							try {
+								for (Method method = queue.poll(); method != null; method = queue.poll()) {
+									binders.put(method, SessionMethodType.forMethod(method, connection));
+								}
+								return null;
+							} catch (Exception e) {
+								queue.clear();
+								throw handler.wrap(e);
+							} finally {
+								handler.close(connection);
+							}
+						}
+					});
+				}
+			
+				ExecutorService pool = Executors.newFixedThreadPool(threads);
+				try {
+					for (Future<Void> validated : pool.invokeAll(tasks)) {
+						validated.get();
+					}
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+					if (e.getCause() instanceof Error) throw (Error) e.getCause();
+					throw new SQLException(e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted while validating", e);
+				} finally {
+					pool.shutdown();
+				}
+				return new HashMap<Method, SessionMethodHandler.Binder>(binders);
+			}
+		};
+	}
+	
+	/**
+	 * Creates the binders of a session interface's methods
+	 * @param methods the user-defined methods of the interface
+	 * @param connector the source of connections the interface will wrap
+	 * @return the binder of each method
+	 * @throws SQLException
+	 */
+	abstract Map<Method, SessionMethodHandler.Binder> binders(Collection<Method> methods, Connector connector)
+			throws SQLException;
+	
+	/**
+	 * @param type a {@link Session} interface
+	 * @return the methods of the interface that are not declared by {@link Session}
+	 */
+	static List<Method> methods(Class<?> type) {
+		List<Method> methods = new ArrayList<Method>();
+		for (Method method : type.getMethods()) {
+			if (method.getDeclaringClass() != Session.class) methods.add(method);
+		}
+		return methods;
+	}
+	
+	/**
+	 * Validates methods with a connection
+	 * @param methods the methods of a session interface
+	 * @param connection a connection to validate the methods' statements against
+	 * @return the binder of each method
+	 * @throws SQLException
+	 */
+	static Map<Method, SessionMethodHandler.Binder> validate(Collection<Method> methods, Connection connection)
+			throws SQLException {
+		Map<Method, SessionMethodHandler.Binder> binders = new HashMap<Method, SessionMethodHandler.Binder>();
+		for (Method method : methods) {
+			binders.put(method, SessionMethodType.forMethod(method, connection));
+		}
+		return binders;
+	}
+}
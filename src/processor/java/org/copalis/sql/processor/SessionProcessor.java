@@ -0,0 +1,493 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import org.copalis.sql.Results;
+import org.copalis.sql.common.Generated;
+
+/**
+ * An annotation processor that generates implementations of {@link org.copalis.sql.Session}
+ * interfaces, and of the {@link Results} interfaces returned by their queries.
+ * <p>
+ * Generated sessions call their method handlers directly instead of through a dynamic proxy.
+ * Generated results contain the {@code SELECT} field list that would otherwise be inferred at runtime,
+ * and read each field by position with the {@link java.sql.ResultSet} getter for its declared type.
+ * {@link org.copalis.sql.Connecting} uses generated classes automatically when they are present;
+ * interfaces without generated classes are still implemented with dynamic proxies.
+ * <p>
+ * The processor is enabled by putting it on the compiler's class path or processor path
+ *
+ * @author gilesjb
+ * @see Generated
+ */
+@SupportedAnnotationTypes({"org.copalis.sql.Session.Query", "org.copalis.sql.Session.Update"})
+public class SessionProcessor extends AbstractProcessor {
+
+	private static final Set<String> INHERITED = new HashSet<String>(Arrays.asList(
+			"java.lang.Object", "org.copalis.sql.Session",
+			"org.copalis.sql.Results", "org.copalis.sql.Results.Updatable"));
+
+	private static final Map<String, String> GETTERS = new HashMap<String, String>();
+	static {
+		GETTERS.put("int", "getInt");
+		GETTERS.put("long", "getLong");
+		GETTERS.put("double", "getDouble");
+		GETTERS.put("float", "getFloat");
+		GETTERS.put("short", "getShort");
+		GETTERS.put("byte", "getByte");
+		GETTERS.put("boolean", "getBoolean");
+		GETTERS.put("java.lang.Integer", "getNullableInt");
+		GETTERS.put("java.lang.Long", "getNullableLong");
+		GETTERS.put("java.lang.Double", "getNullableDouble");
+		GETTERS.put("java.math.BigDecimal", "getBigDecimal");
+		GETTERS.put("java.lang.String", "getString");
+		GETTERS.put("byte[]", "getBytes");
+	}
+
+	private final Set<String> generated = new HashSet<String>();
+
+	@Override public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		Set<TypeElement> sessions = new LinkedHashSet<TypeElement>();
+		for (TypeElement annotation : annotations) {
+			for (Element element : round.getElementsAnnotatedWith(annotation)) {
+				sessions.add((TypeElement) element.getEnclosingElement());
+			}
+		}
+
+		for (TypeElement session : sessions) {
+			if (session.getKind() != ElementKind.INTERFACE || !session.getTypeParameters().isEmpty()) continue;
+			try {
+				generateSession(session);
+			} catch (IllegalArgumentException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), session);
+			} catch (IOException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.toString(), session);
+			}
+		}
+		return false;
+	}
+
+	private void generateSession(TypeElement session) throws IOException {
+		String name = Generated.className(processingEnv.getElementUtils().getBinaryName(session).toString());
+		if (!generated.add(name)) return;
+
+		List<ExecutableElement> methods = methods(session);
+		for (ExecutableElement method : methods) {
+			if (isResults(method.getReturnType())) {
+				generateResults((TypeElement) ((DeclaredType) method.getReturnType()).asElement());
+			}
+		}
+
+		String simple = simpleName(name, session);
+		PrintWriter out = open(name, session);
+		out.format("public final class %s extends org.copalis.sql.session.GeneratedSession implements %s {%n",
+				simple, session.getQualifiedName());
+		out.println();
+		out.println("\tprivate static final String[] SIGNATURES = {");
+		for (ExecutableElement method : methods) {
+			out.format("\t\t\"%s\",%n", signature(method));
+		}
+		out.println("\t};");
+		out.println();
+		out.format("\tpublic %s() {}%n", simple);
+		out.println();
+		out.format("\tprivate %s(java.sql.Connection connection, org.copalis.sql.session.SessionMethods methods) {%n", simple);
+		out.println("\t\tsuper(connection, methods);");
+		out.println("\t}");
+		out.println();
+		out.println("\tpublic String[] signatures() {");
+		out.println("\t\treturn SIGNATURES.clone();");
+		out.println("\t}");
+		out.println();
+		out.println("\tpublic org.copalis.sql.session.GeneratedSession create(");
+		out.println("\t\t\tjava.sql.Connection connection, org.copalis.sql.session.SessionMethods methods) {");
+		out.format("\t\treturn new %s(connection, methods);%n", simple);
+		out.println("\t}");
+
+		for (int slot = 0; slot < methods.size(); slot++) {
+			ExecutableElement method = methods.get(slot);
+			TypeMirror ret = method.getReturnType();
+
+			StringBuilder params = new StringBuilder();
+			StringBuilder args = new StringBuilder();
+			String separator = "";
+			int i = 1;
+			for (VariableElement param : method.getParameters()) {
+				params.append(separator).append(typeName(param.asType())).append(" p").append(i);
+				args.append(separator).append('p').append(i++);
+				separator = ", ";
+			}
+
+			String call = "execute(" + slot + ", " +
+					(args.length() == 0? "(Object[]) null" : "new Object[] {" + args + "}") + ")";
+			out.println();
+			out.format("\tpublic %s %s(%s) {%n", typeName(ret), method.getSimpleName(), params);
+			if (ret.getKind() == TypeKind.VOID) {
+				out.format("\t\t%s;%n", call);
+			} else {
+				out.format("\t\treturn (%s) %s;%n", boxedName(ret), call);
+			}
+			out.println("\t}");
+		}
+		out.println("}");
+		out.close();
+	}
+
+	/**
+	 * The fields read by a {@link Results} interface, or by one of its qualifiers
+	 */
+	private class Layout {
+		final TypeElement type;
+		final String prefix;
+		final String className;
+		final int first;
+		final Map<String, Property> properties = new LinkedHashMap<String, Property>();
+		final Map<ExecutableElement, Layout> qualifiers = new LinkedHashMap<ExecutableElement, Layout>();
+		int end;
+
+		Layout(TypeElement type, String prefix, String className, int first, List<Layout> all) {
+			this.type = type;
+			this.prefix = prefix;
+			this.className = className;
+			this.first = first;
+			all.add(this);
+
+			List<ExecutableElement> qualifierMethods = new ArrayList<ExecutableElement>();
+			for (ExecutableElement method : methods(type)) {
+				String name = propertyName(method);
+				TypeMirror ret = method.getReturnType();
+				int params = method.getParameters().size();
+
+				if (params == 0 && isResults(ret)) {
+					qualifierMethods.add(method);
+				} else if (params == 0 && ret.getKind() != TypeKind.VOID) {
+					property(name).getter = method;
+				} else if (params == 1 && (ret.getKind() == TypeKind.VOID || isResults(ret))) {
+					property(name).setter = method;
+				} else {
+					throw new IllegalArgumentException(method + " is not a valid Results method");
+				}
+			}
+
+			int idx = first;
+			for (Property property : properties.values()) {
+				property.validate();
+				property.index = idx++;
+			}
+			for (ExecutableElement method : qualifierMethods) {
+				Layout child = new Layout((TypeElement) ((DeclaredType) method.getReturnType()).asElement(),
+						propertyName(method) + '.', "Q" + all.size(), idx, all);
+				qualifiers.put(method, child);
+				idx = child.end;
+			}
+			this.end = idx;
+		}
+
+		private Property property(String name) {
+			Property property = properties.get(name);
+			if (property == null) properties.put(name, property = new Property(name));
+			return property;
+		}
+
+		void names(List<String> names) {
+			for (Property property : properties.values()) {
+				names.add(prefix + property.name);
+			}
+			for (Layout child : qualifiers.values()) {
+				child.names(names);
+			}
+		}
+
+		void validate(PrintWriter out, String indent) {
+			for (Property property : properties.values()) {
+				out.format("%s\t\tcheck(meta, %d, \"%s\", %s, %s);%n", indent, property.index, prefix + property.name,
+						property.getter == null? "null" : typeName(property.getter.getReturnType()) + ".class",
+						property.setter == null? "null" :
+							typeName(property.setter.getParameters().get(0).asType()) + ".class");
+			}
+			for (Layout child : qualifiers.values()) {
+				child.validate(out, indent);
+			}
+		}
+
+		void accessors(PrintWriter out, String indent) {
+			for (Map.Entry<ExecutableElement, Layout> entry : qualifiers.entrySet()) {
+				out.println();
+				out.format("%s\tpublic %s %s() {%n", indent,
+						typeName(entry.getKey().getReturnType()), entry.getKey().getSimpleName());
+				out.format("%s\t\treturn %s;%n", indent, entry.getValue().field());
+				out.format("%s\t}%n", indent);
+			}
+			for (Property property : properties.values()) {
+				if (property.getter != null) {
+					TypeMirror ret = property.getter.getReturnType();
+					String getter = GETTERS.get(typeName(ret));
+					out.println();
+					out.format("%s\tpublic %s %s() {%n", indent, typeName(ret), property.getter.getSimpleName());
+					if (getter != null) {
+						out.format("%s\t\treturn %s(%d);%n", indent, getter, property.index);
+					} else {
+						out.format("%s\t\treturn (%s) getObject(%d);%n", indent, boxedName(ret), property.index);
+					}
+					out.format("%s\t}%n", indent);
+				}
+				if (property.setter != null) {
+					TypeMirror ret = property.setter.getReturnType();
+					out.println();
+					out.format("%s\tpublic %s %s(%s value) {%n", indent, typeName(ret), property.setter.getSimpleName(),
+							typeName(property.setter.getParameters().get(0).asType()));
+					out.format("%s\t\tupdate(%d, value);%n", indent, property.index);
+					if (ret.getKind() != TypeKind.VOID) {
+						if (!processingEnv.getTypeUtils().isAssignable(type.asType(), ret)) {
+							throw new IllegalArgumentException(property.setter + " must return void or " + type);
+						}
+						out.format("%s\t\treturn this;%n", indent);
+					}
+					out.format("%s\t}%n", indent);
+				}
+			}
+		}
+
+		String field() {
+			return "q" + className.substring(1);
+		}
+	}
+
+	/**
+	 * A property with a getter and/or setter
+	 */
+	private class Property {
+		final String name;
+		ExecutableElement getter, setter;
+		int index;
+
+		Property(String name) {
+			this.name = name;
+		}
+
+		void validate() {
+			if (getter != null && setter != null && !processingEnv.getTypeUtils().isSameType(
+					getter.getReturnType(), setter.getParameters().get(0).asType())) {
+				throw new IllegalArgumentException(
+						"Getter for \"" + name + "\" must return same type that setter accepts");
+			}
+		}
+	}
+
+	private void generateResults(TypeElement results) throws IOException {
+		String name = Generated.className(processingEnv.getElementUtils().getBinaryName(results).toString());
+		if (!generated.add(name)) return;
+
+		String simple = simpleName(name, results);
+		List<Layout> layouts = new ArrayList<Layout>();
+		Layout top = new Layout(results, "", simple, 1, layouts);
+
+		List<String> names = new ArrayList<String>();
+		top.names(names);
+
+		PrintWriter out = open(name, results);
+		out.format("public final class %s extends org.copalis.sql.results.GeneratedResults implements %s {%n",
+				simple, results.getQualifiedName());
+		out.println();
+		names(out, "", names);
+		fields(out, "", top);
+		out.println();
+		out.format("\tpublic %s() {%n", simple);
+		out.println("\t\tthis(null);");
+		out.println("\t}");
+		out.println();
+		out.format("\tprivate %s(java.sql.ResultSet results) {%n", simple);
+		out.println("\t\tsuper(results, NAMES, 1);");
+		construct(out, "", top);
+		out.println("\t}");
+		out.println();
+		out.println("\t@Override protected org.copalis.sql.results.GeneratedResults create(java.sql.ResultSet results) {");
+		out.format("\t\treturn new %s(results);%n", simple);
+		out.println("\t}");
+		out.println();
+		out.println("\t@Override protected void validate(java.sql.ResultSetMetaData meta) throws java.sql.SQLException {");
+		top.validate(out, "");
+		out.println("\t}");
+		top.accessors(out, "");
+
+		for (Layout layout : layouts.subList(1, layouts.size())) {
+			List<String> own = new ArrayList<String>();
+			layout.names(own);
+
+			out.println();
+			out.format("\tprivate static final class %s extends org.copalis.sql.results.GeneratedResults implements %s {%n",
+					layout.className, layout.type.getQualifiedName());
+			names(out, "\t", own);
+			fields(out, "\t", layout);
+			out.println();
+			out.format("\t\t%s(java.sql.ResultSet results) {%n", layout.className);
+			out.format("\t\t\tsuper(results, NAMES, %d);%n", layout.first);
+			construct(out, "\t", layout);
+			out.println("\t\t}");
+			out.println();
+			out.println("\t\t@Override protected org.copalis.sql.results.GeneratedResults create(java.sql.ResultSet results) {");
+			out.format("\t\t\treturn new %s(results);%n", layout.className);
+			out.println("\t\t}");
+			out.println();
+			out.println("\t\t@Override protected void validate(java.sql.ResultSetMetaData meta) throws java.sql.SQLException {");
+			layout.validate(out, "\t");
+			out.println("\t\t}");
+			layout.accessors(out, "\t");
+			out.println("\t}");
+		}
+		out.println("}");
+		out.close();
+	}
+
+	private static void names(PrintWriter out, String indent, List<String> names) {
+		out.format("%s\tprivate static final String[] NAMES = {", indent);
+		String separator = "";
+		for (String name : names) {
+			out.format("%s\"%s\"", separator, name);
+			separator = ", ";
+		}
+		out.println("};");
+	}
+
+	private static void fields(PrintWriter out, String indent, Layout layout) {
+		for (Layout child : layout.qualifiers.values()) {
+			out.format("%s\tprivate final %s %s;%n", indent, child.className, child.field());
+		}
+	}
+
+	private static void construct(PrintWriter out, String indent, Layout layout) {
+		for (Layout child : layout.qualifiers.values()) {
+			out.format("%s\t\tthis.%s = new %s(results);%n", indent, child.field(), child.className);
+		}
+	}
+
+	private PrintWriter open(String name, TypeElement source) throws IOException {
+		PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(name, source).openWriter());
+		String pkg = processingEnv.getElementUtils().getPackageOf(source).getQualifiedName().toString();
+		out.format("/* Generated by %s from %s */%n", getClass().getName(), source.getQualifiedName());
+		if (pkg.length() > 0) {
+			out.format("package %s;%n", pkg);
+		}
+		out.println();
+		out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+		return out;
+	}
+
+	private String simpleName(String name, TypeElement source) {
+		String pkg = processingEnv.getElementUtils().getPackageOf(source).getQualifiedName().toString();
+		return pkg.length() == 0? name : name.substring(pkg.length() + 1);
+	}
+
+	/**
+	 * Gets the abstract methods of an interface, excluding those of the base interfaces
+	 */
+	private List<ExecutableElement> methods(TypeElement type) {
+		Map<String, ExecutableElement> methods = new LinkedHashMap<String, ExecutableElement>();
+		for (ExecutableElement method : ElementFilter.methodsIn(
+				processingEnv.getElementUtils().getAllMembers(type))) {
+			String owner = ((TypeElement) method.getEnclosingElement()).getQualifiedName().toString();
+			if (method.getModifiers().contains(Modifier.ABSTRACT) && !INHERITED.contains(owner)) {
+				String signature = signature(method);
+				if (!methods.containsKey(signature)) methods.put(signature, method);
+			}
+		}
+		return new ArrayList<ExecutableElement>(methods.values());
+	}
+
+	private boolean isResults(TypeMirror type) {
+		if (type.getKind() != TypeKind.DECLARED) return false;
+		Element element = ((DeclaredType) type).asElement();
+		TypeMirror results = processingEnv.getElementUtils().getTypeElement(Results.class.getCanonicalName()).asType();
+		return element.getKind() == ElementKind.INTERFACE &&
+				processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(type), results);
+	}
+
+	private static String propertyName(ExecutableElement method) {
+		Results.As as = method.getAnnotation(Results.As.class);
+		return as != null? as.value() : method.getSimpleName().toString();
+	}
+
+	/**
+	 * Gets the signature of a method in the form produced by
+	 * {@link org.copalis.sql.common.Name#signature(java.lang.reflect.Method)}
+	 */
+	private String signature(ExecutableElement method) {
+		StringBuilder str = new StringBuilder(method.getSimpleName()).append('(');
+		String separator = "";
+		for (VariableElement param : method.getParameters()) {
+			str.append(separator).append(typeName(param.asType()));
+			separator = ",";
+		}
+		return str.append(')').toString();
+	}
+
+	/**
+	 * Gets the canonical name of the erasure of a type
+	 */
+	private String typeName(TypeMirror type) {
+		switch (type.getKind()) {
+		case ARRAY:
+			return typeName(((ArrayType) type).getComponentType()) + "[]";
+		case DECLARED:
+			return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+		case TYPEVAR:
+			return typeName(processingEnv.getTypeUtils().erasure(type));
+		default:
+			return type.toString();
+		}
+	}
+
+	private String boxedName(TypeMirror type) {
+		if (type.getKind().isPrimitive()) {
+			return processingEnv.getTypeUtils().boxedClass(
+					processingEnv.getTypeUtils().getPrimitiveType(type.getKind())).getQualifiedName().toString();
+		}
+		return typeName(type);
+	}
+}
@@ -20,7 +20,7 @@ import java.math.BigDecimal;
 import org.copalis.sql.Results;
 import org.copalis.sql.Session;
 
-interface CoffeeSession extends Session {
+public interface CoffeeSession extends Session {
 
     /**
      * The create table commands used to set up the example database in memory
@@ -15,11 +15,40 @@
  */
 package org.copalis.sql;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import junit.framework.TestCase;
 
+import org.copalis.sql.common.Name;
+import org.copalis.sql.results.ColumnBuffer;
+import org.copalis.sql.session.ConnectionPool;
+import org.copalis.sql.session.Connector;
+import org.copalis.sql.session.EventRecorder;
+import org.copalis.sql.session.MetadataSnapshot;
+import org.copalis.sql.session.MethodMetrics;
+import org.copalis.sql.session.SessionRegistry;
+import org.copalis.sql.session.SlowQueryLog;
+import org.copalis.sql.session.Validation;
+
 /**
  * @author gilesjb
  *
@@ -49,6 +78,117 @@ public class CoffeeBreakTest extends TestCase {
 		
 		@Query( "COFFEES, SUPPLIERS where COFFEES.SUP_ID = SUPPLIERS.SUP_ID")
 		Names names(BigDecimal price);
+		
+		@Query("COFFEES where PRICE > $1")
+		Cursor<CoffeeResults> coffeesOver(BigDecimal price);
+		
+		@Query(value = "select NAME from COFFEES order by NAME", fetchSize = 2)
+		Iterable<String> coffeeNames();
+		
+		@Query("select SALES from COFFEES")
+		Iterator<Integer> allSales();
+	}
+	
+	interface BatchSession extends Session {
+		@Update(value = "insert into SUPPLIERS (NAME) values ($1)", returnGeneratedKey = true)
+		@Batch(size = 2)
+		void addSupplier(String name);
+		
+		@Update("insert into COFFEES (NAME, SUP_ID, PRICE, SALES, TOTAL)" +
+					"values ($2, $1, $3, 0, 0)")
+		@Batch(size = 2)
+		void addCoffee(int supplier, String name, BigDecimal price);
+		
+		@Query("select count(*) from COFFEES")
+		Integer coffeeCount();
+		
+		@Update(value = "insert into COFFEES (NAME, SUP_ID, PRICE, SALES, TOTAL)" +
+					"values ($2, $1, $3, 0, 0)",
+				bulk = true, batchSize = 2)
+		int addCoffees(Iterable<Object[]> coffees);
+		
+		@Update(value = "insert into SUPPLIERS (NAME) values ($1)", returnGeneratedKey = true, bulk = true)
+		List<Object> addSuppliers(String... names);
+	}
+	
+	interface CachedSession extends Session {
+		@Query("select SALES from COFFEES where NAME = $1")
+		@Cached(maxEntries = 10)
+		Integer coffeeSales(String name);
+		
+		@Query("select count(*) from COFFEES where PRICE > $1")
+		@SingleFlight @Cached
+		Integer coffeesOver(BigDecimal price);
+	}
+	
+	interface SalesSession extends Session {
+		@Update("update COFFEES set SALES = $2 where NAME = $1")
+		int setSales(String name, int sales);
+		
+		@Query("select SALES from COFFEES where NAME = $1")
+		@Cached
+		Integer cachedSales(String name);
+	}
+	
+	interface PagedSession extends Session {
+		@Query("COFFEES order by NAME")
+		@Paged(key = "NAME", size = 2)
+		CoffeeResults coffees();
+		
+		@Query("select NAME from COFFEES where PRICE > $1")
+		@Paged(key = "NAME", size = 2)
+		Cursor<String> coffeeNames(BigDecimal price);
+		
+		@Query("COFFEES where PRICE > $1")
+		@Paged(key = "NAME", size = 5)
+		Cursor<CoffeeResults> coffeesOver(BigDecimal price);
+	}
+	
+	interface ValidatedSession extends Session {
+		@Query("select SALES from COFFEES where NAME = $1")
+		@Cached
+		Integer coffeeSales(String name);
+		
+		@Query("select NAME from COFFEES order by NAME")
+		Iterable<String> coffeeNames();
+		
+		@Query("select MISSING from COFFEES")
+		Integer missing();
+	}
+	
+	interface ShardedSession extends Session {
+		@Update("insert into COFFEES (NAME, SUP_ID, PRICE, SALES, TOTAL) values ($1, 0, $2, 0, 0)")
+		void addCoffee(String name, BigDecimal price);
+		
+		@Query("select SALES from COFFEES where NAME = $1")
+		Integer coffeeSales(String name);
+		
+		@Query("COFFEES order by NAME")
+		@Scatter(key = "NAME")
+		CoffeeResults coffees();
+		
+		@Query("select NAME from COFFEES order by NAME")
+		@Scatter(key = "NAME")
+		Iterable<String> coffeeNames();
+		
+		@Query("COFFEES where PRICE > $1 order by NAME")
+		@Scatter(key = "NAME")
+		Cursor<CoffeeResults> coffeesOver(BigDecimal price);
+		
+		@Update("update COFFEES set SALES = $1")
+		@Scatter
+		int setSales(int sales);
+	}
+	
+	interface AsyncSession extends Session {
+		@Query("select SALES from COFFEES where NAME = $1")
+		Future<Integer> coffeeSales(String name);
+		
+		@Update("update COFFEES set SALES = $2 where NAME = $1")
+		Future<Integer> setSales(String name, int sales);
+		
+		@Update("update COFFEES set TOTAL = $2 where NAME = $1")
+		Future<Void> setTotal(String name, int total);
 	}
 	
 	/**
@@ -114,4 +254,516 @@ public class CoffeeBreakTest extends TestCase {
 	public void testJoin() {
 		
 	}
+	
+	public void testPrimitiveGetters() throws SQLException {
+		CoffeeResults espresso = coffeeSession.coffeesByName("Espresso");
+		assertTrue(espresso.next());
+		assertEquals(BigDecimal.valueOf(999, 2), espresso.price());
+		assertEquals(0, espresso.sales());
+		espresso.close();
+		
+		coffeeSession.connection().createStatement().executeUpdate("update COFFEES set SALES = null");
+		espresso = coffeeSession.coffeesByName("Espresso");
+		assertTrue(espresso.next());
+		assertEquals(0, espresso.sales());
+		espresso.close();
+	}
+	
+	public void testBatch() {
+		BatchSession batch = connector.open(BatchSession.class);
+		batch.addCoffee(1, "Mocha", BigDecimal.ONE);
+		batch.addCoffee(1, "Java", BigDecimal.ONE);
+		batch.addCoffee(1, "Kona", BigDecimal.ONE);
+		assertNotNull(coffeeSession.coffeeSales("Java"));
+		assertNull(coffeeSession.coffeeSales("Kona"));
+		assertEquals(8, batch.coffeeCount().intValue());
+		
+		batch.addSupplier("Bean Co");
+		batch.addSupplier("Cup Co");
+		batch.addSupplier("Mug Co");
+		BatchResults results = batch.flush();
+		assertEquals(6, results.counts().length);
+		assertEquals(6, results.total());
+		assertEquals(3, results.keys().size());
+		
+		batch.addCoffee(1, "Latte", BigDecimal.ONE);
+		batch.close();
+		assertEquals(9, connector.open(BatchSession.class).coffeeCount().intValue());
+	}
+	
+	public void testExecuteFlushes() {
+		connector.as(BatchSession.class).execute(new Session.Command<BatchSession>() {
+			public void execute(BatchSession session) {
+				session.addCoffee(1, "Latte", BigDecimal.ONE);
+			}
+		});
+		assertNotNull(coffeeSession.coffeeSales("Latte"));
+	}
+	
+	public void testDetach() throws SQLException {
+		CoffeeSession session = connector.open(CoffeeSession.class);
+		CoffeeResults coffees = ColumnBuffer.detach(session.coffeesByName("%Decaf"));
+		session.close();
+		
+		List<String> names = new ArrayList<String>();
+		while (coffees.next()) {
+			names.add(coffees.coffeeName());
+			assertEquals(0, coffees.sales());
+		}
+		assertEquals(Arrays.asList("Columbian Decaf", "French Roast Decaf"), names);
+		
+		assertTrue(coffees.results().absolute(1));
+		assertEquals("Columbian Decaf", coffees.coffeeName());
+		assertEquals(coffees.price(), coffees.results().getBigDecimal("PRICE"));
+		assertFalse(coffees.results().absolute(3));
+		assertEquals(ResultSet.TYPE_SCROLL_INSENSITIVE, coffees.results().getType());
+		coffees.close();
+		assertTrue(coffees.results().isClosed());
+	}
+	
+	public void testMetrics() throws NoSuchMethodException {
+		MethodMetrics metrics = new MethodMetrics();
+		CoffeeSession session = connector.as(CoffeeSession.class).listening(metrics).open();
+		session.coffeeSales("Espresso");
+		session.coffeeSales("Mocha");
+		
+		CoffeeResults decaf = session.coffeesByName("%Decaf");
+		while (decaf.next()) {
+			decaf.coffeeName();
+		}
+		int names = 0;
+		for (Iterator<String> i = session.coffeeNames().iterator(); i.hasNext(); i.next()) {
+			names++;
+		}
+		session.close();
+		
+		String sales = Name.of(CoffeeSession.class.getMethod("coffeeSales", String.class));
+		Map<String, MethodMetrics.Stats> stats = metrics.stats();
+		assertEquals(2, stats.get(sales).calls());
+		assertEquals(2, stats.get(sales).latency().count());
+		assertEquals(2, stats.get(Name.of(CoffeeSession.class.getMethod("coffeesByName", String.class))).rows());
+		assertEquals(names, stats.get(Name.of(CoffeeSession.class.getMethod("coffeeNames"))).rows());
+		
+		try {
+			session.coffeeSales("Espresso");
+			fail("Closed session executed query");
+		} catch (DataException e) {
+		}
+		assertEquals(1, metrics.getErrors(sales));
+		assertTrue(metrics.getSummary().contains("coffeesByName"));
+	}
+	
+	public void testEvents() {
+		EventRecorder recorder = new EventRecorder(4);
+		MethodMetrics metrics = new MethodMetrics();
+		CoffeeSession session = connector.as(CoffeeSession.class).listening(metrics).listening(recorder).open();
+		CoffeeResults decaf = session.coffeesByName("%Decaf");
+		while (decaf.next()) {
+			decaf.coffeeName();
+		}
+		session.close();
+		
+		List<EventRecorder.Event> events = recorder.events();
+		assertEquals(4, events.size());
+		assertEquals("prepare", events.get(0).phase);
+		assertEquals("execute", events.get(1).phase);
+		assertEquals("first-row", events.get(2).phase);
+		assertEquals("close", events.get(3).phase);
+		assertEquals(2, events.get(3).rows);
+		assertTrue(events.get(0).sql.contains("?"));
+		assertEquals(Thread.currentThread().getName(), events.get(1).thread);
+		assertEquals(1, metrics.stats().size());
+		
+		session = connector.as(CoffeeSession.class).listening(recorder).open();
+		session.coffeeSales("Espresso");
+		session.close();
+		assertEquals(6, recorder.getRecorded());
+		assertEquals(4, recorder.getEvents().length);
+		assertTrue(recorder.getEvents()[3].contains("coffeeSales"));
+		
+		recorder.clear();
+		assertTrue(recorder.events().isEmpty());
+	}
+	
+	public void testSlowQueries() {
+		SlowQueryLog log = new SlowQueryLog(0).redacting(new SlowQueryLog.Redactor() {
+			public Object redact(Method method, int index, Object value) {
+				return "Mocha".equals(value)? "***" : value;
+			}
+		});
+		CoffeeSession session = connector.as(CoffeeSession.class).listening(log).open();
+		session.coffeeSales("Espresso");
+		session.coffeeSales("Mocha");
+		CoffeeResults decaf = session.coffeesByName("%Decaf");
+		while (decaf.next()) {
+			decaf.coffeeName();
+		}
+		session.close();
+		
+		List<SlowQueryLog.Entry> entries = log.entries();
+		assertEquals(3, entries.size());
+		assertEquals(Arrays.asList("Espresso"), entries.get(0).args);
+		assertEquals(Arrays.asList("***"), entries.get(1).args);
+		assertEquals(-1, entries.get(1).rows);
+		assertEquals(2, entries.get(2).rows);
+		assertEquals("select SALES from COFFEES where NAME = ?", entries.get(0).sql);
+		assertTrue(entries.get(2).toString().contains("%Decaf"));
+		
+		log = new SlowQueryLog(60000);
+		session = connector.as(CoffeeSession.class).listening(log).open();
+		session.coffeeSales("Espresso");
+		session.close();
+		assertEquals(0, log.slow());
+	}
+
+	public void testListeningBeforeAs() throws NoSuchMethodException {
+		MethodMetrics metrics = new MethodMetrics();
+		CoffeeSession session = connector.listening(metrics).as(CoffeeSession.class).open();
+		session.coffeeSales("Espresso");
+		session.close();
+		assertEquals(1, metrics.stats().get(
+				Name.of(CoffeeSession.class.getMethod("coffeeSales", String.class))).calls());
+
+		metrics = new MethodMetrics();
+		session = connector.listening(metrics).open(CoffeeSession.class);
+		session.coffeeSales("Espresso");
+		session.close();
+		assertEquals(1, metrics.stats().size());
+	}
+	
+	public void testPaging() {
+		PagedSession paged = connector.open(PagedSession.class);
+		List<String> names = new ArrayList<String>();
+		CoffeeResults coffees = paged.coffees();
+		while (coffees.next()) {
+			names.add(coffees.coffeeName());
+		}
+		coffees.close();
+		assertEquals(Arrays.asList("Columbian", "Columbian Decaf", "Espresso", "French Roast", "French Roast Decaf"),
+				names);
+		
+		names.clear();
+		for (String name : paged.coffeeNames(BigDecimal.ZERO)) {
+			names.add(name);
+		}
+		assertEquals(5, names.size());
+		
+		int rows = 0;
+		for (CoffeeResults coffee : paged.coffeesOver(BigDecimal.ZERO)) {
+			assertNotNull(coffee.price());
+			rows++;
+		}
+		assertEquals(5, rows);
+		paged.close();
+	}
+	
+	public void testLazyValidationClosesStatements() throws SQLException {
+		final List<PreparedStatement> prepared = new ArrayList<PreparedStatement>();
+		Connector tracking = new Connector() {
+			public Connection connect() throws SQLException {
+				final Connection connection = connector.connect();
+				return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+						new Class<?>[] {Connection.class}, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						try {
+							Object result = method.invoke(connection, args);
+							if (result instanceof PreparedStatement) prepared.add((PreparedStatement) result);
+							return result;
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+			}
+		};
+		ValidatedSession lazy = Connecting.with(tracking).as(ValidatedSession.class, Validation.LAZY).open();
+		assertEquals(0, lazy.coffeeSales("Espresso").intValue());
+		int open = 0;
+		for (PreparedStatement statement : prepared) {
+			if (!statement.isClosed()) open++;
+		}
+		assertEquals(2, prepared.size());
+		assertEquals(1, open);
+		lazy.close();
+	}
+	
+	public void testValidation() {
+		ValidatedSession lazy = connector.as(ValidatedSession.class, Validation.LAZY).open();
+		assertEquals(0, lazy.coffeeSales("Espresso").intValue());
+		assertEquals(0, lazy.coffeeSales("Espresso").intValue());
+		assertTrue(lazy.coffeeNames().iterator().hasNext());
+		try {
+			lazy.missing();
+			fail("Invalid method executed");
+		} catch (DataException e) {
+		}
+		lazy.close();
+		
+		try {
+			Connecting.to("jdbc:hsqldb:mem:test-database", "sa", "").as(ValidatedSession.class, Validation.PARALLEL);
+			fail("Invalid interface validated");
+		} catch (DataException e) {
+		}
+		
+		CoffeeSession parallel = Connecting.to("jdbc:hsqldb:mem:test-database", "sa", "")
+				.as(CoffeeSession.class, Validation.PARALLEL).open();
+		int names = 0;
+		for (Iterator<String> i = parallel.coffeeNames().iterator(); i.hasNext(); i.next()) {
+			names++;
+		}
+		assertEquals(5, names);
+		parallel.close();
+		
+		ConnectionPool pool = new ConnectionPool(connector, 0, 2, ConnectionPool.DEFAULT_IDLE_MILLIS, 100);
+		try {
+			SessionRegistry.clear(pool);
+			Connecting.with(pool).as(CoffeeSession.class, Validation.parallel(2)).open().close();
+			assertEquals(2, pool.size());
+		} finally {
+			pool.close();
+		}
+		try {
+			Validation.parallel(0);
+			fail("Validated without connections");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+	
+	public void testSnapshot() throws IOException {
+		File file = File.createTempFile("metadata", ".snapshot");
+		file.delete();
+		final org.hsqldb.jdbc.JDBCDataSource dataSource = new org.hsqldb.jdbc.JDBCDataSource();
+		dataSource.setDatabase("jdbc:hsqldb:mem:test-database");
+		dataSource.setUser("sa");
+		final int[] connections = {0};
+		Connector counting = new Connector() {
+			public Connection connect() throws SQLException {
+				connections[0]++;
+				return dataSource.getConnection();
+			}
+		};
+		
+		MetadataSnapshot snapshot = new MetadataSnapshot(file, "1");
+		Connecting.with(counting).as(CoffeeSession.class, snapshot);
+		assertEquals(1, snapshot.recorded());
+		assertEquals(1, connections[0]);
+		assertTrue(file.exists());
+		
+		SessionRegistry.clear(counting);
+		snapshot = new MetadataSnapshot(file, "1");
+		CoffeeSession session = Connecting.with(counting).as(CoffeeSession.class, snapshot).open();
+		assertEquals(1, snapshot.replayed());
+		assertEquals(2, connections[0]);
+		CoffeeResults decaf = session.coffeesByName("%Decaf");
+		assertTrue(decaf.next());
+		assertTrue(decaf.coffeeName().endsWith("Decaf"));
+		decaf.close();
+		assertEquals(Integer.valueOf(0), session.coffeeSales("Espresso"));
+		session.close();
+		
+		SessionRegistry.clear(counting);
+		snapshot = new MetadataSnapshot(file, "2");
+		Connecting.with(counting).as(CoffeeSession.class, snapshot);
+		assertEquals(1, snapshot.recorded());
+		assertEquals(0, snapshot.replayed());
+		file.delete();
+	}
+	
+	public void testSharding() throws SQLException {
+		Connecting<Session> shard = Connecting.to("jdbc:hsqldb:mem:shard-database", "sa", "");
+		Session session = shard.open();
+		session.connection().createStatement().executeUpdate(
+				"create table COFFEES (NAME varchar(32), SUP_ID int, PRICE decimal, SALES int, TOTAL int)");
+		session.close();
+		
+		try {
+			List<Connecting<?>> shards = new ArrayList<Connecting<?>>();
+			shards.add(connector);
+			shards.add(shard);
+			ShardedConnecting<ShardedSession> sharded = Connecting.sharded(ShardedSession.class,
+					ShardedConnecting.byParameter(1), shards);
+			ShardedSession coffees = sharded.open();
+			List<String> expected = new ArrayList<String>(Arrays.asList(
+					"Columbian", "Columbian Decaf", "Espresso", "French Roast", "French Roast Decaf"));
+			for (String name : Arrays.asList("Arabica", "Kona", "Mocha", "Java", "Robusta")) {
+				coffees.addCoffee(name, BigDecimal.valueOf(500, 2));
+				expected.add(name);
+				assertEquals(0, coffees.coffeeSales(name).intValue());
+			}
+			Collections.sort(expected);
+			session = shard.open();
+			ResultSet count = session.connection().createStatement().executeQuery("select count(*) from COFFEES");
+			assertTrue(count.next());
+			assertTrue(count.getInt(1) > 0 && count.getInt(1) < 5);
+			session.close();
+			
+			List<String> names = new ArrayList<String>();
+			CoffeeResults results = coffees.coffees();
+			while (results.next()) {
+				names.add(results.coffeeName());
+			}
+			results.close();
+			assertEquals(expected, names);
+			
+			names.clear();
+			for (String name : coffees.coffeeNames()) {
+				names.add(name);
+			}
+			assertEquals(expected, names);
+			
+			names.clear();
+			for (CoffeeResults coffee : coffees.coffeesOver(BigDecimal.valueOf(600, 2))) {
+				names.add(coffee.coffeeName());
+			}
+			assertEquals(Arrays.asList("Columbian", "Columbian Decaf", "Espresso", "French Roast", "French Roast Decaf"),
+					names);
+			
+			assertEquals(10, coffees.setSales(1));
+			try {
+				coffees.connection();
+				fail("Sharded session has a connection");
+			} catch (UnsupportedOperationException e) {
+			}
+			coffees.close();
+		} finally {
+			session = shard.open();
+			session.connection().createStatement().execute("shutdown");
+			session.close();
+		}
+	}
+	
+	public void testCursors() {
+		List<String> names = new ArrayList<String>();
+		for (String name : coffeeSession.coffeeNames()) {
+			names.add(name);
+		}
+		assertEquals(Arrays.asList("Columbian", "Columbian Decaf", "Espresso", "French Roast", "French Roast Decaf"),
+				names);
+		
+		Cursor<CoffeeResults> expensive = coffeeSession.coffeesOver(BigDecimal.valueOf(900, 2));
+		int count = 0;
+		for (CoffeeResults coffee : expensive) {
+			assertTrue(coffee.price().compareTo(BigDecimal.valueOf(900, 2)) > 0);
+			count++;
+		}
+		assertEquals(2, count);
+		assertFalse(expensive.hasNext());
+		
+		Iterator<Integer> sales = coffeeSession.allSales();
+		assertEquals(0, sales.next().intValue());
+		((Cursor<Integer>) sales).close();
+		assertFalse(sales.hasNext());
+	}
+	
+	public void testCached() throws SQLException {
+		CachedSession cached = connector.open(CachedSession.class);
+		int over = cached.coffeesOver(BigDecimal.ZERO);
+		assertEquals(over, cached.coffeesOver(BigDecimal.ZERO).intValue());
+		assertEquals(0, cached.coffeeSales("Espresso").intValue());
+		coffeeSession.connection().createStatement().executeUpdate("update COFFEES set SALES = 5");
+		assertEquals(5, coffeeSession.coffeeSales("Espresso").intValue());
+		cached.close();
+		
+		cached = connector.open(CachedSession.class);
+		cached.connection().close();
+		assertEquals(0, cached.coffeeSales("Espresso").intValue());
+		try {
+			cached.coffeeSales("Mocha");
+			fail("Uncached query used a closed connection");
+		} catch (DataException e) {
+		}
+	}
+	
+	public void testInvalidation() {
+		final CachedSession cached = connector.open(CachedSession.class);
+		SalesSession sales = connector.open(SalesSession.class);
+		assertEquals(0, cached.coffeeSales("Espresso").intValue());
+		sales.setSales("Espresso", 5);
+		assertEquals(5, cached.coffeeSales("Espresso").intValue());
+		
+		try {
+			connector.as(SalesSession.class).transact(new Session.Command<SalesSession>() {
+				public void execute(SalesSession session) throws SQLException {
+					session.setSales("Espresso", 6);
+					throw new SQLException("Rolled back");
+				}
+			});
+			fail("Transaction did not fail");
+		} catch (DataException e) {
+		}
+		assertEquals(5, cached.coffeeSales("Espresso").intValue());
+		
+		connector.as(SalesSession.class).transact(new Session.Command<SalesSession>() {
+			public void execute(SalesSession session) {
+				session.setSales("Espresso", 7);
+				assertEquals(5, cached.coffeeSales("Espresso").intValue());
+			}
+		});
+		assertEquals(7, cached.coffeeSales("Espresso").intValue());
+		
+		try {
+			connector.as(SalesSession.class).transact(new Session.Command<SalesSession>() {
+				public void execute(SalesSession session) throws SQLException {
+					session.setSales("Espresso", 99);
+					assertEquals(99, session.cachedSales("Espresso").intValue());
+					throw new SQLException("Rolled back");
+				}
+			});
+			fail("Transaction did not fail");
+		} catch (DataException e) {
+		}
+		assertEquals(7, sales.cachedSales("Espresso").intValue());
+		sales.close();
+		cached.close();
+	}
+	
+	public void testFutures() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		AsyncSession async = connector.as(AsyncSession.class).using(executor).open();
+		Future<Integer> updated = async.setSales("Espresso", 5);
+		Future<Void> total = async.setTotal("Espresso", 10);
+		Future<Integer> sales = async.coffeeSales("Espresso");
+		assertEquals(5, sales.get().intValue());
+		assertEquals(1, updated.get().intValue());
+		assertNull(total.get());
+		
+		Future<Integer> last = async.setSales("Espresso", 6);
+		async.close();
+		assertTrue(last.isDone());
+		assertEquals(6, coffeeSession.coffeeSales("Espresso").intValue());
+		
+		final List<Future<Integer>> submitted = new ArrayList<Future<Integer>>();
+		Connecting<AsyncSession> connecting = connector.as(AsyncSession.class).using(executor);
+		connecting.transact(new Session.Command<AsyncSession>() {
+			public void execute(AsyncSession session) {
+				submitted.add(session.setSales("Espresso", 7));
+			}
+		});
+		assertTrue(submitted.get(0).isDone());
+		assertEquals(7, coffeeSession.coffeeSales("Espresso").intValue());
+		
+		connecting.execute(new Session.Command<AsyncSession>() {
+			public void execute(AsyncSession session) {
+				submitted.add(session.setSales("Espresso", 8));
+			}
+		});
+		assertEquals(1, submitted.get(1).get().intValue());
+		assertEquals(8, coffeeSession.coffeeSales("Espresso").intValue());
+		executor.shutdown();
+	}
+	
+	public void testCollectionArguments() {
+		BatchSession batch = connector.open(BatchSession.class);
+		List<Object[]> coffees = Arrays.asList(
+				new Object[] {1, "Mocha", BigDecimal.ONE},
+				new Object[] {1, "Java", BigDecimal.ONE},
+				new Object[] {2, "Kona", BigDecimal.ONE});
+		assertEquals(3, batch.addCoffees(coffees));
+		assertEquals(8, batch.coffeeCount().intValue());
+		
+		List<Object> keys = batch.addSuppliers("Bean Co", "Cup Co");
+		assertEquals(2, keys.size());
+		assertFalse(keys.get(0).equals(keys.get(1)));
+		batch.close();
+	}
 }
@@ -15,8 +15,14 @@
  */
 package org.copalis.sql.common;
 
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
@@ -45,10 +51,52 @@ public class ParameterizedStatementTest extends TestCase {
 		} catch (IllegalArgumentException e) {}
 	}
 	
+	public void testTables() {
+		assertEquals(set("COFFEES", "SUPPLIERS"), new ParameterizedStatement(
+				"select a, b from Coffees c, public.SUPPLIERS where c.x = $1 order by a").tables());
+		assertEquals(set("COFFEES", "SUPPLIERS"), new ParameterizedStatement(
+				"select * from COFFEES join SUPPLIERS on COFFEES.SUP_ID = SUPPLIERS.SUP_ID").tables());
+		assertEquals(set("COFFEES"), new ParameterizedStatement(
+				"insert into COFFEES (NAME, NOTE) values ($1, 'from TABLES')").tables());
+		assertEquals(set("COFFEES", "SALES"), new ParameterizedStatement(
+				"update COFFEES set TOTAL = (select sum(N) from SALES where SALES.NAME = COFFEES.NAME)").tables());
+		assertEquals(set("COFFEES"), new ParameterizedStatement("delete from \"COFFEES\" where NAME = $1").tables());
+		assertEquals(set("COFFEES"), new ParameterizedStatement("select * from COFFEES for update").tables());
+	}
+	
+	private static Set<String> set(String... names) {
+		return new HashSet<String>(Arrays.asList(names));
+	}
+	
 	public void testBadIndex() throws SQLException {
 		try {
 			new ParameterizedStatement("$10 $1").validate(null, new Class<?>[] {});
 			fail();
 		} catch (IndexOutOfBoundsException e) {}
 	}
+	
+	public void testBinding() throws Exception {
+		Class.forName("org.hsqldb.jdbc.JDBCDriver");
+		Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:binding-database", "sa", "");
+		try {
+			connection.createStatement().executeUpdate("create table ITEMS (ID int, TOTAL bigint, RATIO double, NAME varchar(20))");
+			ParameterizedStatement insert = new ParameterizedStatement("insert into ITEMS values ($1, $2, $3, $4)");
+			PreparedStatement stmt = insert.prepare(connection, int.class, Long.class, double.class, String.class);
+			insert.setParameters(stmt, new Object[] {1, 20000000000L, 0.5, "one"}).executeUpdate();
+			insert.setParameters(stmt, new Object[] {2, null, 0.25, null}).executeUpdate();
+			
+			ResultSet results = connection.createStatement().executeQuery("select * from ITEMS order by ID");
+			assertTrue(results.next());
+			assertEquals(20000000000L, results.getLong("TOTAL"));
+			assertEquals("one", results.getString("NAME"));
+			assertTrue(results.next());
+			assertEquals(0.25, results.getDouble("RATIO"));
+			assertNull(results.getObject("TOTAL"));
+			assertNull(results.getString("NAME"));
+			assertFalse(results.next());
+		} finally {
+			connection.createStatement().execute("shutdown");
+			connection.close();
+		}
+	}
 }
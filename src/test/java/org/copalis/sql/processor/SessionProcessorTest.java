@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.processor;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import junit.framework.TestCase;
+
+import org.copalis.sql.Connecting;
+import org.copalis.sql.Results;
+import org.copalis.sql.Session;
+import org.copalis.sql.results.GeneratedResults;
+import org.copalis.sql.session.GeneratedSession;
+
+/**
+ * Compiles a session interface with the {@link SessionProcessor}
+ * and checks that the generated classes are used
+ *
+ * @author gilesjb
+ */
+public class SessionProcessorTest extends TestCase {
+
+	private static final String SOURCE =
+			"package generated;\n" +
+			"import org.copalis.sql.*;\n" +
+			"public interface Inventory extends Session {\n" +
+			"  @Update(\"insert into STOCK (NAME, QTY) values ($1, $2)\") int add(String name, int qty);\n" +
+			"  @Query(\"select QTY from STOCK where NAME = $1\") Integer quantity(String name);\n" +
+			"  @Query(\"STOCK where NAME = $1\") Stock named(String name);\n" +
+			"  interface Stock extends Results {\n" +
+			"    String name();\n" +
+			"    @As(\"QTY\") int quantity();\n" +
+			"  }\n" +
+			"}\n";
+
+	private File dir;
+	private Connecting<Session> connecting;
+
+	@Override protected void setUp() throws Exception {
+		dir = File.createTempFile("processor", "");
+		dir.delete();
+		new File(dir, "generated").mkdirs();
+
+		Class.forName("org.hsqldb.jdbc.JDBCDriver");
+		connecting = Connecting.to("jdbc:hsqldb:mem:processor-database", "sa", "");
+		Session session = connecting.open();
+		session.connection().createStatement().executeUpdate("create table STOCK (NAME varchar(32), QTY int)");
+		session.close();
+	}
+
+	@Override protected void tearDown() throws Exception {
+		Session session = connecting.open();
+		session.connection().createStatement().execute("shutdown");
+		session.close();
+		delete(dir);
+	}
+
+	public void testGenerated() throws Exception {
+		Class<? extends Session> type = compile().loadClass("generated.Inventory").asSubclass(Session.class);
+
+		Session session = connecting.open(type);
+		assertTrue(session instanceof GeneratedSession);
+
+		type.getMethod("add", String.class, int.class).invoke(session, "bolt", 50);
+		assertEquals(50, type.getMethod("quantity", String.class).invoke(session, "bolt"));
+
+		Results stock = (Results) type.getMethod("named", String.class).invoke(session, "bolt");
+		assertTrue(stock instanceof GeneratedResults);
+		assertTrue(stock.next());
+		assertEquals("bolt", stock.getClass().getMethod("name").invoke(stock));
+		assertEquals(50, stock.getClass().getMethod("quantity").invoke(stock));
+		assertFalse(stock.next());
+		stock.close();
+		session.close();
+	}
+
+	private ClassLoader compile() throws IOException {
+		File source = new File(dir, "generated/Inventory.java");
+		FileWriter writer = new FileWriter(source);
+		writer.write(SOURCE);
+		writer.close();
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		StandardJavaFileManager files = compiler.getStandardFileManager(null, null, null);
+		JavaCompiler.CompilationTask task = compiler.getTask(null, files, null,
+				Arrays.asList("-d", dir.getPath(), "-classpath", System.getProperty("java.class.path")),
+				null, files.getJavaFileObjects(source));
+		task.setProcessors(Arrays.asList(new SessionProcessor()));
+		assertTrue(task.call());
+		files.close();
+
+		return new URLClassLoader(new URL[] {dir.toURI().toURL()}, getClass().getClassLoader());
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) delete(child);
+		}
+		file.delete();
+	}
+}
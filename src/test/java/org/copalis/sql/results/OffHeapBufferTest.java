@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.results;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * @author gilesjb
+ *
+ */
+public class OffHeapBufferTest extends TestCase {
+
+	private static final int ROWS = 200;
+	private static final String SELECT = "select ID, TOTAL, RATIO, NAME, DATA, PRICE, CREATED from MEASURES order by ID";
+
+	private Connection connection;
+
+	@Override protected void setUp() throws Exception {
+		Class.forName("org.hsqldb.jdbc.JDBCDriver");
+		connection = DriverManager.getConnection("jdbc:hsqldb:mem:buffer-database", "sa", "");
+		connection.createStatement().executeUpdate("create table MEASURES (ID int, TOTAL bigint, RATIO double," +
+				"NAME varchar(40), DATA varbinary(16), PRICE decimal(10,2), CREATED timestamp)");
+		PreparedStatement insert = connection.prepareStatement("insert into MEASURES values (?, ?, ?, ?, ?, ?, ?)");
+		for (int i = 0; i < ROWS; i++) {
+			insert.setInt(1, i);
+			insert.setLong(2, i * 1000000000L);
+			insert.setDouble(3, i / 8.0);
+			insert.setString(4, i % 3 == 0? null : "name " + i % 5);
+			insert.setBytes(5, new byte[] {(byte) i, 1, 2});
+			insert.setBigDecimal(6, i % 7 == 0? null : BigDecimal.valueOf(i * 101, 2));
+			insert.setTimestamp(7, new Timestamp(i * 3600000L));
+			insert.executeUpdate();
+		}
+	}
+
+	@Override protected void tearDown() throws Exception {
+		connection.createStatement().execute("shutdown");
+		connection.close();
+	}
+
+	private static void assertValue(Object expected, Object actual) {
+		if (expected instanceof byte[]) {
+			assertTrue(Arrays.equals((byte[]) expected, (byte[]) actual));
+		} else {
+			assertEquals(expected, actual);
+		}
+	}
+
+	private void assertSameRows(RowBuffer buffer) throws SQLException {
+		ResultSet results = connection.createStatement().executeQuery(SELECT);
+		ResultSet buffered = buffer.resultSet();
+		for (int row = 0; results.next(); row++) {
+			assertTrue(buffered.next());
+			for (int column = 1; column <= buffer.columns(); column++) {
+				Object expected = results.getObject(column);
+				assertValue(expected, buffered.getObject(column));
+				assertValue(expected, buffer.get(row, column));
+			}
+		}
+		assertFalse(buffered.next());
+		results.close();
+	}
+
+	public void testDirect() throws SQLException {
+		OffHeapBuffer buffer = OffHeapBuffer.fetch(connection.createStatement().executeQuery(SELECT));
+		assertEquals(ROWS, buffer.rows());
+		assertEquals(0, buffer.mappedBytes());
+		assertSameRows(buffer);
+		buffer.close();
+	}
+
+	public void testSpill() throws SQLException {
+		OffHeapBuffer buffer = OffHeapBuffer.fetch(connection.createStatement().executeQuery(SELECT), 2048, 512);
+		assertTrue(buffer.directBytes() <= 2048);
+		assertTrue(buffer.mappedBytes() > 0);
+		assertSameRows(buffer);
+
+		ResultSet results = buffer.resultSet();
+		assertTrue(results.absolute(-1));
+		assertEquals(ROWS - 1, results.getInt("ID"));
+		assertEquals((ROWS - 1) * 1000000000L, results.getLong("TOTAL"));
+		assertTrue(results.absolute(8));
+		assertNull(results.getBigDecimal("PRICE"));
+		assertTrue(results.wasNull());
+		assertEquals(0, results.getInt("PRICE"));
+		buffer.close();
+	}
+
+	public void testColumnBuffer() throws SQLException {
+		ColumnBuffer buffer = ColumnBuffer.fetch(connection.createStatement().executeQuery(SELECT));
+		assertEquals(ROWS, buffer.rows());
+		assertSameRows(buffer);
+	}
+}
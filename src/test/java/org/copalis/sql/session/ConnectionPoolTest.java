@@ -0,0 +1,165 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import junit.framework.TestCase;
+
+import org.copalis.sql.Connecting;
+import org.copalis.sql.Session;
+
+/**
+ * @author gilesjb
+ *
+ */
+public class ConnectionPoolTest extends TestCase {
+
+	interface PoolSession extends Session {
+		@Query("select count(*) from POOLED") Integer count();
+		@Update("insert into POOLED (ID) values ($1)") void add(int id);
+	}
+
+	private int connects;
+
+	private final Connector counting = new Connector() {
+		public Connection connect() throws SQLException {
+			connects++;
+			return DriverManager.getConnection("jdbc:hsqldb:mem:pool-database", "sa", "");
+		}
+	};
+
+	private ConnectionPool pool;
+
+	@Override protected void setUp() throws Exception {
+		Class.forName("org.hsqldb.jdbc.JDBCDriver");
+		Connection connection = counting.connect();
+		connection.createStatement().executeUpdate("create table POOLED (ID int)");
+		connection.close();
+		connects = 0;
+		pool = new ConnectionPool(counting, 0, 2, 60000, 100);
+	}
+
+	@Override protected void tearDown() throws Exception {
+		pool.close();
+		Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:pool-database", "sa", "");
+		connection.createStatement().execute("shutdown");
+		connection.close();
+	}
+
+	public void testSessionReturnsConnection() {
+		Connecting<PoolSession> connecting = Connecting.with(pool).as(PoolSession.class);
+		for (int i = 0; i < 5; i++) {
+			PoolSession session = connecting.open();
+			session.add(i);
+			session.close();
+		}
+		assertEquals(1, connects);
+		assertEquals(1, pool.size());
+
+		PoolSession session = connecting.open();
+		assertEquals(5, session.count().intValue());
+		session.close();
+	}
+
+	public void testMaximumSize() throws SQLException {
+		Connection first = pool.connect();
+		Connection second = pool.connect();
+		try {
+			pool.connect();
+			fail("Pool exceeded maximum size");
+		} catch (SQLException e) {
+			assertEquals(2, pool.size());
+		}
+		first.close();
+		pool.connect().close();
+		second.close();
+		assertEquals(2, connects);
+	}
+
+	public void testReturnResetsConnection() throws SQLException {
+		Connection connection = pool.connect();
+		PreparedStatement prepared = connection.prepareStatement("select ID from POOLED");
+		assertSame(connection, prepared.getConnection());
+		ResultSet results = prepared.executeQuery();
+		assertSame(prepared, results.getStatement());
+		results.close();
+		prepared.close();
+		assertTrue(prepared.isClosed());
+		Statement statement = connection.createStatement();
+		connection.setAutoCommit(false);
+		statement.executeUpdate("insert into POOLED (ID) values (1)");
+		connection.close();
+
+		assertTrue(statement.isClosed());
+		assertTrue(connection.isClosed());
+		try {
+			connection.createStatement();
+			fail("Returned connection is still usable");
+		} catch (SQLException e) {
+		}
+
+		connection = pool.connect();
+		assertTrue(connection.getAutoCommit());
+		PoolSession session = Connecting.with(pool).open(PoolSession.class);
+		assertEquals(0, session.count().intValue());
+		session.close();
+		connection.close();
+	}
+
+	public void testStatementCache() {
+		Connecting<PoolSession> connecting = Connecting.with(pool).as(PoolSession.class);
+		long misses = pool.statementCacheMisses();
+		for (int i = 0; i < 3; i++) {
+			PoolSession session = connecting.open();
+			session.add(i);
+			assertEquals(i + 1, session.count().intValue());
+			session.close();
+		}
+		assertEquals(misses + 2, pool.statementCacheMisses());
+		assertEquals(4, pool.statementCacheHits());
+	}
+
+	public void testStatementCacheEviction() throws SQLException {
+		ConnectionPool small = new ConnectionPool(counting, 0, 1, 60000, 100, 1);
+		PoolSession session = Connecting.with(small).open(PoolSession.class);
+		session.add(1);
+		session.count();
+		session.add(2);
+		assertEquals(3, small.statementCacheMisses());
+		assertEquals(0, small.statementCacheHits());
+		session.close();
+		small.close();
+	}
+
+	public void testEviction() throws SQLException, InterruptedException {
+		ConnectionPool evicting = new ConnectionPool(counting, 1, 3, 1, 100);
+		Connection[] connections = {evicting.connect(), evicting.connect(), evicting.connect()};
+		for (Connection connection : connections) {
+			connection.close();
+		}
+		Thread.sleep(10);
+		evicting.evict();
+		assertEquals(1, evicting.size());
+		evicting.close();
+		assertEquals(0, evicting.size());
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import junit.framework.TestCase;
+
+/**
+ * @author gilesjb
+ *
+ */
+public class HistogramTest extends TestCase {
+
+	public void testBuckets() {
+		for (long value : new long[] {0, 1, 7, 8, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE / 3}) {
+			int bucket = Histogram.bucket(value);
+			assertTrue(value + " above bucket", value <= Histogram.highest(bucket));
+			assertTrue(value + " below bucket", bucket == 0 || value > Histogram.highest(bucket - 1));
+			assertTrue(Histogram.highest(bucket) - value <= value / Histogram.SUB_BUCKETS);
+		}
+	}
+
+	public void testPercentiles() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.percentile(50));
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(1000, histogram.count());
+		long median = histogram.percentile(50);
+		assertTrue(median >= 500000 && median <= 500000 * 9 / 8);
+		long max = histogram.percentile(100);
+		assertTrue(max >= 1000000 && max <= 1000000 * 9 / 8);
+		assertTrue(histogram.percentile(1) <= histogram.percentile(99));
+		histogram.reset();
+		assertEquals(0, histogram.count());
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * @author gilesjb
+ *
+ */
+public class InFlightTest extends TestCase {
+	
+	private final InFlight inFlight = new InFlight();
+	private final AtomicInteger executions = new AtomicInteger();
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	
+	private Callable<Object> blocking(final Object result) {
+		return new Callable<Object>() {
+			public Object call() throws InterruptedException {
+				executions.incrementAndGet();
+				started.countDown();
+				release.await();
+				if (result instanceof RuntimeException) throw (RuntimeException) result;
+				return result;
+			}
+		};
+	}
+	
+	private Future<Object> call(ExecutorService executor, final Object[] args, final Callable<Object> call) {
+		return executor.submit(new Callable<Object>() {
+			public Object call() {
+				return inFlight.execute(QueryCache.key(args), call);
+			}
+		});
+	}
+	
+	private void awaitJoined(long count) throws InterruptedException {
+		for (int i = 0; i < 500 && inFlight.joined() < count; i++) {
+			Thread.sleep(10);
+		}
+	}
+	
+	public void testConcurrentCallsShareExecution() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		Future<Object> first = call(executor, new Object[] {"Java"}, blocking("value"));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		Future<Object> second = call(executor, new Object[] {"Java"}, blocking("other"));
+		Future<Object> third = call(executor, new Object[] {"Java"}, blocking("other"));
+		awaitJoined(2);
+		release.countDown();
+		
+		assertEquals("value", first.get());
+		assertEquals("value", second.get());
+		assertEquals("value", third.get());
+		assertEquals(1, executions.get());
+		assertEquals(2, inFlight.joined());
+		assertEquals(0, inFlight.size());
+		
+		assertEquals("other", call(executor, new Object[] {"Java"}, blocking("other")).get());
+		assertEquals(2, executions.get());
+		executor.shutdown();
+	}
+	
+	public void testExceptionShared() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		IllegalStateException failure = new IllegalStateException();
+		Future<Object> first = call(executor, new Object[] {1}, blocking(failure));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		Future<Object> second = call(executor, new Object[] {1}, blocking("value"));
+		awaitJoined(1);
+		release.countDown();
+		
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		futures.add(first);
+		futures.add(second);
+		for (Future<Object> future : futures) {
+			try {
+				future.get();
+				fail("Exception was not thrown");
+			} catch (ExecutionException e) {
+				assertSame(failure, e.getCause());
+			}
+		}
+		assertEquals(1, executions.get());
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * @author gilesjb
+ *
+ */
+public class QueryCacheTest extends TestCase {
+
+	public void testKeys() {
+		QueryCache cache = new QueryCache(0, 100);
+		cache.put(QueryCache.key(new Object[] {"a", new byte[] {1, 2}}), 1);
+		cache.put(QueryCache.key(null), null);
+		
+		assertEquals(1, cache.get(QueryCache.key(new Object[] {"a", new byte[] {1, 2}})));
+		assertNull(cache.get(QueryCache.key(new Object[0])));
+		assertSame(QueryCache.MISS, cache.get(QueryCache.key(new Object[] {"b"})));
+		assertEquals(2, cache.hits());
+		assertEquals(1, cache.misses());
+	}
+
+	public void testLeastRecentlyUsedEvicted() {
+		QueryCache cache = new QueryCache(0, 1);
+		QueryCache.Key first = QueryCache.key(new Object[] {1});
+		cache.put(first, "one");
+		cache.put(QueryCache.key(new Object[] {2}), "two");
+		assertEquals(1, cache.size());
+		assertSame(QueryCache.MISS, cache.get(first));
+	}
+
+	public void testExpiry() throws InterruptedException {
+		QueryCache cache = new QueryCache(1, 10);
+		QueryCache.Key key = QueryCache.key(new Object[] {1});
+		cache.put(key, "one");
+		Thread.sleep(5);
+		assertSame(QueryCache.MISS, cache.get(key));
+		assertEquals(0, cache.size());
+	}
+
+	public void testGenerations() {
+		TableInvalidation invalidation = new TableInvalidation();
+		QueryCache cache = new QueryCache(0, 10);
+		invalidation.register(Collections.singleton("COFFEES"), cache);
+		String[] tables = {"COFFEES"};
+		long generation = invalidation.generation(tables);
+		cache.put(QueryCache.key(null), 1);
+		invalidation.invalidate(new String[] {"SUPPLIERS"});
+		assertEquals(generation, invalidation.generation(tables));
+		assertEquals(1, cache.size());
+		invalidation.invalidate(tables);
+		assertTrue(generation != invalidation.generation(tables));
+		assertEquals(0, cache.size());
+	}
+}
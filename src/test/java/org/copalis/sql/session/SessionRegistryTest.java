@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2012 Giles Burgess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.copalis.sql.session;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import junit.framework.TestCase;
+
+import org.copalis.sql.Connecting;
+import org.copalis.sql.Session;
+
+/**
+ * @author gilesjb
+ *
+ */
+public class SessionRegistryTest extends TestCase {
+
+	interface CountSession extends Session {
+		@Query("select count(*) from COUNTED") Integer count();
+		@Update("insert into COUNTED (ID) values ($1)") void add(int id);
+	}
+
+	interface BrokenSession extends Session {
+		@Query("select count(*) from NO_SUCH_TABLE") Integer count();
+	}
+
+	private int connects;
+
+	private final Connector counting = new Connector() {
+		public Connection connect() throws SQLException {
+			connects++;
+			return DriverManager.getConnection("jdbc:hsqldb:mem:registry-database", "sa", "");
+		}
+	};
+
+	@Override protected void setUp() throws Exception {
+		Class.forName("org.hsqldb.jdbc.JDBCDriver");
+		Connection connection = counting.connect();
+		connection.createStatement().executeUpdate("create table COUNTED (ID int)");
+		connection.close();
+		connects = 0;
+	}
+
+	@Override protected void tearDown() throws Exception {
+		Connection connection = counting.connect();
+		connection.createStatement().execute("shutdown");
+		connection.close();
+	}
+
+	public void testValidatedOnce() {
+		Connecting<Session> connecting = Connecting.with(counting);
+		connecting.as(CountSession.class);
+		assertEquals(1, connects);
+
+		CountSession session = connecting.open(CountSession.class);
+		assertEquals(2, connects);
+		session.add(1);
+		assertEquals(1, session.count().intValue());
+		session.close();
+
+		Connecting.with(counting).open(CountSession.class).close();
+		assertEquals(3, connects);
+	}
+
+	public void testFailureNotRegistered() {
+		for (int i = 1; i <= 2; i++) {
+			try {
+				Connecting.with(counting).as(BrokenSession.class);
+				fail();
+			} catch (RuntimeException e) {}
+			assertEquals(i, connects);
+		}
+	}
+}